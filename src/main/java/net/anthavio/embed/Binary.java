@@ -40,22 +40,59 @@ import net.anthavio.process.Platform;
  */
 public class Binary extends Platform {
 
+    private final String name;
+
     private final String resource;
 
+    private final Compression compression;
+
     public Binary(Os os, Bit osBits, String resource) {
         this(os, Arch.UNSET, osBits, Bit.UNSET, resource);
     }
 
     public Binary(Os os, Arch arch, Bit osBits, Bit jvmBits, String resource) {
+        this(null, os, arch, osBits, jvmBits, resource, resource != null ? Compression.detect(resource) : null);
+    }
+
+    /**
+     * @param name of binary inside bundle - when null, derived from resource file name 
+     */
+    public Binary(String name, Os os, Arch arch, Bit osBits, Bit jvmBits, String resource, Compression compression) {
         super(os, arch, osBits, jvmBits);
         if (resource == null || resource.isEmpty()) {
             throw new IllegalArgumentException("Null or empty resource: " + resource);
         }
         this.resource = resource;
+        if (compression == null) {
+            throw new IllegalArgumentException("Null compression");
+        }
+        this.compression = compression;
+        if (name == null) {
+            name = getFilename();
+            if (name.endsWith(".exe")) {
+                name = name.substring(0, name.length() - 4);
+            }
+        }
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
     }
 
     public String getResource() {
         return resource;
     }
 
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return name of unpacked file - resource without path and compression suffix
+     */
+    public String getFilename() {
+        return compression.strip(resource.substring(resource.lastIndexOf('/') + 1));
+    }
+
 }
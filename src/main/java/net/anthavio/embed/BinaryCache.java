@@ -0,0 +1,256 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Content addressed binary cache. Every binary is unpacked into root/<sha256>/ so different versions never collide 
+ * and identical binaries of different builds share single copy
+ * 
+ * Access time is kept as modification time of .access file in each entry. Least recently used entries are evicted 
+ * when cache exceeds size budget or entry exceeds age budget. Entry containing binary executed by running process is never evicted. 
+ * Process detection works on Linux (/proc/[pid]/exe), Windows refuses to delete executing binary itself
+ * 
+ * Unpacking into entry and eviction both hold lock of cache root, so entry never vanishes under concurrent unpack 
+ * and nobody can be waiting for entry's own .lock file when eviction deletes it together with the entry
+ * 
+ * @author mvanek
+ */
+class BinaryCache {
+
+    static final String ACCESS_FILE = ".access";
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final File root;
+
+    private final long maxBytes;
+
+    private final long maxAgeMillis;
+
+    /**
+     * @param maxBytes total size budget, negative for unlimited
+     * @param maxAgeMillis unused entry age budget, negative for unlimited
+     */
+    public BinaryCache(File root, long maxBytes, long maxAgeMillis) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Lock of whole cache, shared by threads of this JVM and by other JVMs
+     */
+    public DirectoryLock lock() {
+        if (!root.isDirectory() && !root.mkdirs() && !root.isDirectory()) {
+            throw new IllegalArgumentException("Failed to make cache directory: " + root);
+        }
+        return DirectoryLock.lock(root);
+    }
+
+    /**
+     * Must be called while holding cache lock, together with unpacking into returned entry 
+     */
+    public File entry(String hash) {
+        File entry = new File(root, hash);
+        if (!entry.exists()) {
+            if (!entry.mkdirs() && !entry.isDirectory()) {
+                throw new IllegalArgumentException("Failed to make cache directory: " + entry);
+            }
+        }
+        return entry;
+    }
+
+    public void touch(File entry) {
+        File access = new File(entry, ACCESS_FILE);
+        if (!access.setLastModified(System.currentTimeMillis())) {
+            try {
+                new FileOutputStream(access).close();
+            } catch (IOException iox) {
+                //entry without access time is evicted first, nothing worse
+            }
+        }
+    }
+
+    /**
+     * Evict least recently used entries over budget, never the one we just used
+     * 
+     * @return number of evicted entries
+     */
+    public int evict(File keep) {
+        if (maxBytes < 0 && maxAgeMillis < 0) {
+            return 0;
+        }
+        DirectoryLock lock = lock();
+        try {
+            List<Entry> entries = list();
+            long total = 0;
+            for (Entry entry : entries) {
+                total += entry.size;
+            }
+            long now = System.currentTimeMillis();
+            Set<String> executing = null;
+            int evicted = 0;
+            for (Entry entry : entries) { // oldest access first
+                boolean tooOld = maxAgeMillis >= 0 && now - entry.accessed > maxAgeMillis;
+                boolean tooBig = maxBytes >= 0 && total > maxBytes;
+                if (!tooOld && !tooBig) {
+                    break;
+                }
+                if (entry.directory.equals(keep)) {
+                    continue;
+                }
+                if (executing == null) {
+                    executing = executing();
+                }
+                if (isExecuting(entry.directory, executing)) {
+                    continue;
+                }
+                if (delete(entry.directory)) {
+                    total -= entry.size;
+                    ++evicted;
+                }
+            }
+            return evicted;
+        } finally {
+            lock.release();
+        }
+    }
+
+    private List<Entry> list() {
+        List<Entry> entries = new ArrayList<Entry>();
+        File[] directories = root.listFiles();
+        if (directories == null) {
+            return entries;
+        }
+        for (File directory : directories) {
+            if (!directory.isDirectory() || !HASH.matcher(directory.getName()).matches()) {
+                continue;
+            }
+            long size = 0;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    size += file.length();
+                }
+            }
+            entries.add(new Entry(directory, new File(directory, ACCESS_FILE).lastModified(), size));
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return e1.accessed < e2.accessed ? -1 : (e1.accessed == e2.accessed ? 0 : 1);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * @return canonical paths of binaries executed by running processes (Linux only)
+     */
+    private static Set<String> executing() {
+        Set<String> paths = new HashSet<String>();
+        File[] processes = new File("/proc").listFiles();
+        if (processes == null) {
+            return paths;
+        }
+        for (File process : processes) {
+            if (!Character.isDigit(process.getName().charAt(0))) {
+                continue;
+            }
+            try {
+                paths.add(new File(process, "exe").getCanonicalPath());
+            } catch (IOException iox) {
+                //process ended or not ours
+            }
+        }
+        return paths;
+    }
+
+    private static boolean isExecuting(File directory, Set<String> executing) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    if (executing.contains(file.getCanonicalPath())) {
+                        return true;
+                    }
+                } catch (IOException iox) {
+                    return true; //better safe
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Must be called while holding cache lock
+     */
+    private static boolean delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete() && file.exists()) {
+                    return false; // Windows - executing
+                }
+            }
+        }
+        return directory.delete();
+    }
+
+    private static class Entry {
+
+        private final File directory;
+
+        private final long accessed;
+
+        private final long size;
+
+        Entry(File directory, long accessed, long size) {
+            this.directory = directory;
+            this.accessed = accessed;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 helpers for unpacked binaries
+ * 
+ * Manifest is resource + ".sha256" placed next to binary resource, in sha256sum output format 
+ * (sha256sum redis-server > redis-server.sha256)
+ * 
+ * Stamp is hidden file next to unpacked binary, recording hash together with length and modification time 
+ * so warm unpack does not need to rehash binary, when neither of them changed
+ * 
+ * @author mvanek
+ */
+class Checksum {
+
+    static final String SUFFIX = ".sha256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsax) {
+            throw new IllegalStateException("SHA-256 not supported", nsax);
+        }
+    }
+
+    public static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    public static String of(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * @return expected hash from manifest or null when resource has no manifest
+     */
+    public static String manifest(ClassLoader classLoader, String resource) {
+        InputStream stream = classLoader.getResourceAsStream(resource + SUFFIX);
+        if (stream == null) {
+            return null;
+        }
+        try {
+            String line = new BufferedReader(new InputStreamReader(stream, "US-ASCII")).readLine();
+            if (line == null || line.trim().length() < 64) {
+                throw new IllegalStateException("Invalid checksum manifest: " + resource + SUFFIX);
+            }
+            return line.trim().substring(0, 64).toLowerCase();
+        } catch (IOException iox) {
+            throw new IllegalStateException("Failed to read checksum manifest: " + resource + SUFFIX, iox);
+        } finally {
+            close(stream);
+        }
+    }
+
+    public static File stampOf(File target) {
+        return new File(target.getParentFile(), "." + target.getName() + SUFFIX);
+    }
+
+    /**
+     * @return recorded hash when stamp exists and target length and modification time still match, null otherwise
+     */
+    public static String stamped(File target) {
+        File stamp = stampOf(target);
+        if (!stamp.isFile()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stamp), "US-ASCII"));
+            try {
+                String[] parts = String.valueOf(reader.readLine()).split(" ");
+                if (parts.length == 3 && Long.parseLong(parts[1]) == target.length() && Long.parseLong(parts[2]) == target.lastModified()) {
+                    return parts[0];
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException iox) {
+            //treat as missing
+        } catch (NumberFormatException nfx) {
+            //treat as missing - concurrently written or corrupted
+        }
+        return null;
+    }
+
+    public static void stamp(File target, String hash) {
+        File stamp = stampOf(target);
+        String line = hash + " " + target.length() + " " + target.lastModified() + "\n";
+        try {
+            OutputStream output = new FileOutputStream(stamp);
+            try {
+                output.write(line.getBytes("US-ASCII"));
+            } finally {
+                output.close();
+            }
+        } catch (IOException iox) {
+            stamp.delete(); //next unpack will just rehash
+        }
+    }
+
+    private static void close(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException iox) {
+            //ignore
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression of embedded binary resource. Decompression is always streaming, never buffering whole binary
+ * 
+ * XZ requires org.tukaani:xz library on classpath
+ * 
+ * @author mvanek
+ */
+public enum Compression {
+
+    NONE(""), GZIP(".gz"), XZ(".xz");
+
+    private final String suffix;
+
+    private Compression(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Guess compression from resource name suffix
+     */
+    public static Compression detect(String resource) {
+        if (resource.endsWith(GZIP.suffix)) {
+            return GZIP;
+        } else if (resource.endsWith(XZ.suffix)) {
+            return XZ;
+        } else {
+            return NONE;
+        }
+    }
+
+    /**
+     * @return resource name without compression suffix
+     */
+    public String strip(String resource) {
+        if (this != NONE && resource.endsWith(suffix)) {
+            return resource.substring(0, resource.length() - suffix.length());
+        }
+        return resource;
+    }
+
+    public InputStream decompress(InputStream stream) throws IOException {
+        switch (this) {
+        case GZIP:
+            return new GZIPInputStream(stream, 64 * 1024);
+        case XZ:
+            return xz(stream);
+        default:
+            return stream;
+        }
+    }
+
+    private static InputStream xz(InputStream stream) throws IOException {
+        Constructor<?> constructor;
+        try {
+            constructor = Class.forName("org.tukaani.xz.XZInputStream").getConstructor(InputStream.class);
+        } catch (ClassNotFoundException cnfx) {
+            throw new IllegalStateException("XZ compressed resource requires org.tukaani:xz library on classpath", cnfx);
+        } catch (NoSuchMethodException nsmx) {
+            throw new IllegalStateException("Incompatible org.tukaani:xz library", nsmx);
+        }
+        try {
+            return (InputStream) constructor.newInstance(stream);
+        } catch (InvocationTargetException itx) {
+            if (itx.getCause() instanceof IOException) {
+                throw (IOException) itx.getCause();
+            }
+            throw new IllegalStateException("Failed to open XZ stream", itx.getCause());
+        } catch (Exception x) {
+            throw new IllegalStateException("Failed to open XZ stream", x);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of a directory shared by threads of this JVM and by other JVMs.
+ * 
+ * FileLock is held on behalf of whole JVM, so threads are serialized by ReentrantLock first
+ * and only the first (outermost) acquisition goes for the FileLock
+ * 
+ * @author mvanek
+ */
+class DirectoryLock {
+
+    static final String LOCK_FILE = ".lock";
+
+    private static final ConcurrentMap<String, ReentrantLock> LOCALS = new ConcurrentHashMap<String, ReentrantLock>();
+
+    public static DirectoryLock lock(File directory) {
+        String key = directory.getAbsolutePath();
+        ReentrantLock local = LOCALS.get(key);
+        if (local == null) {
+            ReentrantLock created = new ReentrantLock();
+            local = LOCALS.putIfAbsent(key, created);
+            if (local == null) {
+                local = created;
+            }
+        }
+        local.lock();
+        if (local.getHoldCount() > 1) {
+            return new DirectoryLock(local, null, null); //FileLock is already ours
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+            FileLock fileLock = file.getChannel().lock();
+            return new DirectoryLock(local, file, fileLock);
+        } catch (IOException iox) {
+            close(file);
+            local.unlock();
+            throw new IllegalStateException("Failed to lock directory: " + directory, iox);
+        }
+    }
+
+    private final ReentrantLock local;
+
+    private final RandomAccessFile file;
+
+    private final FileLock fileLock;
+
+    private DirectoryLock(ReentrantLock local, RandomAccessFile file, FileLock fileLock) {
+        this.local = local;
+        this.file = file;
+        this.fileLock = fileLock;
+    }
+
+    public void release() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+        } catch (IOException iox) {
+            //ignore - closing file releases it anyway
+        } finally {
+            close(file);
+            local.unlock();
+        }
+    }
+
+    private static void close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException iox) {
+                //ignore
+            }
+        }
+    }
+}
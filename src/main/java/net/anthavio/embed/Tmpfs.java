@@ -0,0 +1,123 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import net.anthavio.process.Os;
+import net.anthavio.process.Platform;
+
+/**
+ * Finds writable memory backed (tmpfs) mount on Linux. Executing binary from there avoids page-in from slow disk
+ * 
+ * @author mvanek
+ */
+class Tmpfs {
+
+    static final String PROC_MOUNTS = "/proc/mounts";
+
+    /**
+     * @return tmpfs mount point with most usable space (at least minFreeBytes), which is writable and not mounted noexec. 
+     * null on non Linux system or when none qualifies
+     */
+    public static File find(long minFreeBytes) {
+        if (Platform.detectOs() != Os.LINUX) {
+            return null;
+        }
+        File mounts = new File(PROC_MOUNTS);
+        if (!mounts.canRead()) {
+            return null;
+        }
+        File best = null;
+        long bestFree = minFreeBytes - 1;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mounts), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // tmpfs /dev/shm tmpfs rw,nosuid,nodev 0 0
+                    String[] fields = line.split(" ");
+                    if (fields.length < 4 || !"tmpfs".equals(fields[2]) || !isExecWritable(fields[3])) {
+                        continue;
+                    }
+                    String path = unescape(fields[1]);
+                    if (path.startsWith("/sys/") || path.startsWith("/proc/")) {
+                        continue; // kernel interfaces like /sys/fs/cgroup
+                    }
+                    File mountPoint = new File(path);
+                    if (mountPoint.isDirectory() && mountPoint.canWrite()) {
+                        long free = mountPoint.getUsableSpace();
+                        if (free > bestFree) {
+                            best = mountPoint;
+                            bestFree = free;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException iox) {
+            return null;
+        }
+        return best;
+    }
+
+    private static boolean isExecWritable(String options) {
+        for (String option : options.split(",")) {
+            if (option.equals("noexec") || option.equals("ro")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * /proc/mounts escapes space, tab, newline and backslash as octal \040
+     */
+    static String unescape(String path) {
+        if (path.indexOf('\\') == -1) {
+            return path;
+        }
+        StringBuilder sb = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); ++i) {
+            char c = path.charAt(i);
+            if (c == '\\' && i + 3 < path.length()) {
+                sb.append((char) Integer.parseInt(path.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM wide memo of verified unpacked binaries, so repeated unpack of the same binary costs just a stat of the file
+ * 
+ * Entry is revalidated by comparing file modification time and length with those recorded at unpack, 
+ * deleted or replaced file is unpacked again
+ * 
+ * @author mvanek
+ */
+public class UnpackRegistry {
+
+    private static final ConcurrentMap<String, Unpacked> entries = new ConcurrentHashMap<String, Unpacked>();
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @return still valid unpacked file or null
+     */
+    static File lookup(String key) {
+        Unpacked unpacked = entries.get(key);
+        if (unpacked != null && unpacked.isValid()) {
+            hits.incrementAndGet();
+            return unpacked.file;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    static void register(String key, File file) {
+        entries.put(key, new Unpacked(file));
+    }
+
+    /**
+     * @return number of unpacks answered from registry
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of unpacks that went to filesystem and classpath
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Forget all entries and reset counters
+     */
+    public static void clear() {
+        entries.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static class Unpacked {
+
+        private final File file;
+
+        private final long lastModified;
+
+        private final long length;
+
+        Unpacked(File file) {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        boolean isValid() {
+            // lastModified is 0 for missing file
+            return file.lastModified() == lastModified && lastModified != 0 && file.length() == length;
+        }
+    }
+}
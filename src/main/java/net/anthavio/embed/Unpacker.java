@@ -28,14 +28,29 @@
  */
 package net.anthavio.embed;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.anthavio.process.Arch;
 import net.anthavio.process.Bit;
@@ -48,6 +63,10 @@ import net.anthavio.process.Platform.DetectedPlatform;
  */
 public class Unpacker {
 
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    private static final long DEFAULT_TMPFS_MIN_FREE = 64 * 1024 * 1024;
+
     public static UnpackerBuilder Builder() {
         return new UnpackerBuilder();
     }
@@ -56,20 +75,250 @@ public class Unpacker {
     private final String name;
     private final String version;
     private final String destination;
+    private final BinaryCache cache;
+
+    private final ConcurrentMap<String, Binary> detected = new ConcurrentHashMap<String, Binary>();
+
+    private final ConcurrentMap<Binary, String> hashes = new ConcurrentHashMap<Binary, String>();
 
     public Unpacker(String name, String version, String destination, Collection<Binary> binaries) {
+        this(name, version, destination, binaries, -1, -1);
+    }
+
+    /**
+     * With cacheMaxBytes or cacheMaxAgeMillis set (non negative), binaries are unpacked into content addressed cache
+     * destination/name-cache/sha256/ and least recently used entries are evicted over the budget
+     */
+    public Unpacker(String name, String version, String destination, Collection<Binary> binaries, long cacheMaxBytes, long cacheMaxAgeMillis) {
+        if (binaries == null || binaries.isEmpty()) {
+            throw new IllegalArgumentException("No binaries to unpack");
+        }
         this.name = name;
         this.version = version;
         this.destination = destination;
         this.binaries = binaries;
+        if (cacheMaxBytes >= 0 || cacheMaxAgeMillis >= 0) {
+            File root = new File(destination, (name != null ? name : "unpacker") + "-cache");
+            this.cache = new BinaryCache(root, cacheMaxBytes, cacheMaxAgeMillis);
+        } else {
+            this.cache = null;
+        }
     }
 
+    /**
+     * Unpack primary (first added) binary
+     */
     public File unpack() {
-        Binary binary = detect();
+        return unpack(binaries.iterator().next().getName());
+    }
+
+    /**
+     * Unpack single binary of the bundle
+     */
+    public File unpack(String binaryName) {
+        Binary binary = detect(binaryName);
         if (binary == null) {
-            throw new IllegalArgumentException("Binary not found for platform: " + Platform.detect());
+            throw new IllegalArgumentException("Binary " + binaryName + " not found for platform: " + Platform.detect());
+        }
+        String key = getRegistryKey(binary);
+        File target = UnpackRegistry.lookup(key);
+        if (target != null) {
+            return target;
+        }
+        if (cache != null) {
+            String hash = getContentHash(binary);
+            File directory;
+            DirectoryLock lock = cache.lock(); // entry cannot be evicted between creation and unpack
+            try {
+                directory = cache.entry(hash);
+                target = unpackExecutable(binary, directory);
+                cache.touch(directory);
+            } finally {
+                lock.release();
+            }
+            cache.evict(directory);
+        } else {
+            target = unpackExecutable(binary, getDirectory());
+        }
+        UnpackRegistry.register(key, target);
+        return target;
+    }
+
+    private static File unpackExecutable(Binary binary, File directory) {
+        File target = new File(directory, binary.getFilename());
+        unpack(binary, target);
+        if (!target.canExecute()) {
+            target.setExecutable(true); //check return value...
+        }
+        return target;
+    }
+
+    /**
+     * Unpack all binaries of the bundle for detected platform. Copying is done in parallel while holding directory lock once
+     * 
+     * @return binary name -> unpacked file
+     */
+    public Map<String, File> unpackAll() {
+        Map<String, File> registered = new LinkedHashMap<String, File>();
+        for (Binary binary : binaries) {
+            if (!registered.containsKey(binary.getName())) {
+                Binary match = detect(binary.getName());
+                File target = match != null ? UnpackRegistry.lookup(getRegistryKey(match)) : null;
+                if (target == null) {
+                    registered = null;
+                    break;
+                }
+                registered.put(binary.getName(), target);
+            }
+        }
+        if (registered != null) {
+            return registered;
+        }
+        if (cache != null) {
+            // every binary has own content addressed directory - no single directory to lock 
+            Map<String, File> targets = new LinkedHashMap<String, File>();
+            for (Binary binary : binaries) {
+                if (!targets.containsKey(binary.getName())) {
+                    targets.put(binary.getName(), unpack(binary.getName()));
+                }
+            }
+            return targets;
+        }
+
+        Map<String, Binary> matches = new LinkedHashMap<String, Binary>();
+        for (Binary binary : binaries) {
+            if (!matches.containsKey(binary.getName())) {
+                Binary match = detect(binary.getName());
+                if (match == null) {
+                    throw new IllegalArgumentException("Binary " + binary.getName() + " not found for platform: " + Platform.detect());
+                }
+                matches.put(binary.getName(), match);
+            }
+        }
+        File directory = getDirectory();
+        ClassLoader classLoader = getClassLoader();
+        Map<String, File> targets = new LinkedHashMap<String, File>();
+        final Map<Binary, File> pending = new LinkedHashMap<Binary, File>();
+        for (Binary binary : matches.values()) {
+            File target = new File(directory, binary.getFilename());
+            targets.put(binary.getName(), target);
+            if (!isVerified(target, Checksum.manifest(classLoader, binary.getResource()))) {
+                pending.put(binary, target);
+            }
+        }
+        if (!pending.isEmpty()) {
+            DirectoryLock lock = DirectoryLock.lock(directory);
+            try {
+                extractAll(pending, classLoader);
+            } finally {
+                lock.release();
+            }
+        }
+        for (Entry<String, File> entry : targets.entrySet()) {
+            File target = entry.getValue();
+            if (!target.canExecute()) {
+                target.setExecutable(true); //check return value...
+            }
+            UnpackRegistry.register(getRegistryKey(matches.get(entry.getKey())), target);
         }
+        return targets;
+    }
+
+    private static void extractAll(Map<Binary, File> pending, final ClassLoader classLoader) {
+        if (pending.size() == 1) {
+            Entry<Binary, File> entry = pending.entrySet().iterator().next();
+            extract(entry.getKey(), entry.getValue(), classLoader);
+            return;
+        }
+        int threads = Math.min(pending.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "unpacker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Entry<Binary, File> entry : pending.entrySet()) {
+                futures.add(executor.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        extract(entry.getKey(), entry.getValue(), classLoader);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    throw new IllegalStateException("Failed to unpack", ex.getCause());
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while unpacking", ix);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return hash from manifest or computed from (decompressed) resource content
+     */
+    private String getContentHash(Binary binary) {
+        String hash = hashes.get(binary);
+        if (hash == null) {
+            ClassLoader classLoader = getClassLoader();
+            hash = Checksum.manifest(classLoader, binary.getResource());
+            if (hash == null) {
+                hash = hash(classLoader, binary);
+            }
+            hashes.put(binary, hash);
+        }
+        return hash;
+    }
+
+    private static String hash(ClassLoader classLoader, Binary binary) {
+        InputStream stream = classLoader.getResourceAsStream(binary.getResource());
+        if (stream == null) {
+            throw new IllegalStateException("Resource not found " + binary.getResource() + " using ClassLoader " + classLoader);
+        }
+        MessageDigest digest = Checksum.newDigest();
+        try {
+            InputStream input = binary.getCompression().decompress(stream);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException iox) {
+            throw new IllegalStateException("Failed to read resource: " + binary.getResource(), iox);
+        }
+        return Checksum.hex(digest.digest());
+    }
+
+    /**
+     * destination + name + version + platform + binary resource
+     */
+    private String getRegistryKey(Binary binary) {
+        DetectedPlatform platform = Platform.detect();
+        return new StringBuilder(destination).append('|').append(name).append('-').append(version).append('|').append(platform.getOs())
+                .append('-').append(platform.getArch()).append('-').append(platform.getOsBits()).append('|').append(binary.getResource())
+                .append(cache != null ? "|cache" : "").toString();
+    }
 
+    private File getDirectory() {
         StringBuilder subdir = new StringBuilder();
         if (name != null) {
             subdir.append(name);
@@ -84,26 +333,33 @@ public class Unpacker {
         File directory = new File(destination, subdir.toString());
 
         if (!directory.exists()) {
-            if (!directory.mkdirs()) {
+            if (!directory.mkdirs() && !directory.isDirectory()) {
                 throw new IllegalArgumentException("Failed to make target directory: " + directory);
             }
         }
+        return directory;
+    }
 
-        String resource = binary.getResource();
-        String filename = resource.substring(resource.lastIndexOf('/') + 1);
-        File target = new File(directory, filename);
-
-        unpack(resource, target);
+    protected Binary detect() {
+        return detect(binaries.iterator().next().getName());
+    }
 
-        if (!target.canExecute()) {
-            target.setExecutable(true); //check return value...
+    protected Binary detect(String binaryName) {
+        Binary detected = this.detected.get(binaryName);
+        if (detected == null) {
+            detected = detect(binaryName, Platform.detect());
+            if (detected != null) {
+                this.detected.put(binaryName, detected);
+            }
         }
-        return target;
+        return detected;
     }
 
-    protected Binary detect() {
-        DetectedPlatform platform = Platform.detect();
+    private Binary detect(String binaryName, DetectedPlatform platform) {
         for (Binary binary : binaries) {
+            if (!binary.getName().equals(binaryName)) {
+                continue;
+            }
             boolean arch = binary.getArch() == platform.getArch() || binary.getArch() == Arch.UNSET;
             boolean os = binary.getOs() == platform.getOs() || binary.getOs() == Os.UNSET;
             boolean bits = binary.getOsBits() == platform.getOsBits() || platform.getOsBits() == Bit.B64 || binary.getOsBits() == Bit.UNSET;
@@ -114,28 +370,105 @@ public class Unpacker {
         return null;
     }
 
-    private static void unpack(String resource, File target) {
-        if (target.exists() && target.isFile() && target.canExecute()) {
+    /**
+     * Existing target is reused only when its content is verified against checksum manifest (or own stamp)
+     * Otherwise resource is copied into temporary file, verified and renamed to target while holding directory lock,
+     * so concurrent JVMs sharing same destination never see half-written binary and only one of them pays the copy
+     * 
+     * Manifest and stamp of compressed resource hold checksum of decompressed content, so warm unpack never decompresses
+     */
+    private static void unpack(Binary binary, File target) {
+        ClassLoader classLoader = getClassLoader();
+        if (isVerified(target, Checksum.manifest(classLoader, binary.getResource()))) {
             return; //keep existing
         }
-        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-        if (classLoader == null) {
-            classLoader = Unpacker.class.getClassLoader();
+        DirectoryLock lock = DirectoryLock.lock(target.getParentFile());
+        try {
+            extract(binary, target, classLoader);
+        } finally {
+            lock.release();
         }
+    }
+
+    /**
+     * Must be called while holding directory lock
+     */
+    private static void extract(Binary binary, File target, ClassLoader classLoader) {
+        String resource = binary.getResource();
+        String expected = Checksum.manifest(classLoader, resource);
+        if (isVerified(target, expected)) {
+            return; //other JVM was faster
+        }
+        String actual = copy(classLoader, binary, target);
+        if (expected != null && !expected.equals(actual)) {
+            target.delete();
+            throw new IllegalStateException("Checksum mismatch of resource: " + resource + " expected: " + expected + " actual: " + actual);
+        }
+        Checksum.stamp(target, actual);
+    }
+
+    private static boolean isVerified(File target, String expected) {
+        if (!target.isFile()) {
+            return false;
+        }
+        String stamped = Checksum.stamped(target);
+        if (stamped != null) {
+            return expected == null || expected.equals(stamped);
+        }
+        if (expected == null) {
+            return false; // cannot tell complete file from half-written one
+        }
+        try {
+            if (expected.equals(Checksum.of(target))) {
+                Checksum.stamp(target, expected);
+                return true;
+            }
+        } catch (IOException iox) {
+            //unreadable - unpack again
+        }
+        return false;
+    }
+
+    /**
+     * Streams resource into temporary file using FileChannel.transferFrom, which moves data through 
+     * thread cached direct buffer, and renames it to target afterwards. Compressed resource is decompressed on the fly
+     * 
+     * @return SHA-256 of copied (decompressed) content
+     */
+    private static String copy(ClassLoader classLoader, Binary binary, File target) {
+        String resource = binary.getResource();
         InputStream stream = classLoader.getResourceAsStream(resource);
         if (stream == null) {
             throw new IllegalStateException("Resource not found " + resource + " using ClassLoader " + classLoader);
         }
-        BufferedInputStream input = new BufferedInputStream(stream);
-        BufferedOutputStream output = null;
+        MessageDigest digest = Checksum.newDigest();
+        ReadableByteChannel input = null;
+        FileOutputStream output = null;
+        File temporary = null;
         try {
-            output = new BufferedOutputStream(new FileOutputStream(target));
-            while (input.available() > 0) {
-                byte[] buffer = new byte[input.available()];
-                input.read(buffer);
-                output.write(buffer);
+            input = new DigestChannel(Channels.newChannel(binary.getCompression().decompress(stream)), digest);
+            temporary = File.createTempFile(target.getName() + ".", ".tmp", target.getParentFile());
+            output = new FileOutputStream(temporary);
+            FileChannel channel = output.getChannel();
+            long position = 0;
+            long transferred;
+            // returns 0 only on end of stream - unlike InputStream.available()
+            while ((transferred = channel.transferFrom(input, position, TRANSFER_CHUNK)) > 0) {
+                position += transferred;
+            }
+            output.close();
+            output = null;
+
+            temporary.setExecutable(true); //check return value...
+            if (!temporary.renameTo(target)) {
+                // Windows does not replace existing file
+                target.delete();
+                if (!temporary.renameTo(target)) {
+                    throw new IOException("Failed to rename " + temporary + " to " + target);
+                }
             }
-            output.flush();
+            temporary = null;
+            return Checksum.hex(digest.digest());
 
         } catch (Exception x) {
             throw new IllegalStateException("Failed to unpack resource: " + resource + " into: " + target, x);
@@ -148,19 +481,75 @@ public class Unpacker {
                 }
             }
             try {
-                input.close();
+                if (input != null) {
+                    input.close();
+                } else {
+                    stream.close();
+                }
             } catch (IOException iox) {
                 //ignore
             }
+            if (temporary != null) {
+                temporary.delete();
+            }
         }
     }
 
+    /**
+     * Feeds MessageDigest with bytes passing through
+     */
+    static class DigestChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel channel;
+
+        private final MessageDigest digest;
+
+        public DigestChannel(ReadableByteChannel channel, MessageDigest digest) {
+            this.channel = channel;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            int start = buffer.position();
+            int read = channel.read(buffer);
+            if (read > 0) {
+                ByteBuffer view = buffer.duplicate();
+                view.position(start);
+                view.limit(start + read);
+                digest.update(view);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static ClassLoader getClassLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = Unpacker.class.getClassLoader();
+        }
+        return classLoader;
+    }
+
     public static class UnpackerBuilder {
 
-        private Collection<Binary> binaries = new HashSet<Binary>();
+        private Collection<Binary> binaries = new LinkedHashSet<Binary>();
         private String name;
         private String version;
         private String destination = System.getProperty("unpacker.dir", System.getProperty("java.io.tmpdir"));
+        private long tmpfsMinFree = Boolean.getBoolean("unpacker.tmpfs") ? DEFAULT_TMPFS_MIN_FREE : -1;
+        private long cacheMaxBytes = -1;
+        private long cacheMaxAgeMillis = -1;
 
         public UnpackerBuilder setName(String name) {
             this.name = name;
@@ -172,18 +561,67 @@ public class Unpacker {
             return this;
         }
 
+        /**
+         * Binary name is derived from resource file name (redis-server.exe -> redis-server)
+         */
         public UnpackerBuilder addBinary(Os os, Bit bits, String resource) {
             binaries.add(new Binary(os, bits, resource));
             return this;
         }
 
+        /**
+         * Resource compressed in other format than its name suffix says (.gz or .xz)
+         */
+        public UnpackerBuilder addBinary(Os os, Bit bits, String resource, Compression compression) {
+            binaries.add(new Binary(null, os, Arch.UNSET, bits, Bit.UNSET, resource, compression));
+            return this;
+        }
+
+        /**
+         * Add named binary into bundle. First added binary name is the primary one
+         */
+        public UnpackerBuilder addBinary(String name, Os os, Bit bits, String resource) {
+            binaries.add(new Binary(name, os, Arch.UNSET, bits, Bit.UNSET, resource, Compression.detect(resource)));
+            return this;
+        }
+
         public UnpackerBuilder setDestination(String destination) {
             this.destination = destination;
             return this;
         }
 
+        /**
+         * Linux only - unpack into memory backed tmpfs mount (like /dev/shm) having at least minFreeBytes of usable space.
+         * Falls back to destination when no writable tmpfs without noexec is mounted.
+         * Can be turned on globally with -Dunpacker.tmpfs=true
+         */
+        public UnpackerBuilder preferTmpfs(long minFreeBytes) {
+            this.tmpfsMinFree = minFreeBytes;
+            return this;
+        }
+
+        /**
+         * Use content addressed cache layout destination/name-cache/sha256/ instead of destination/name-version/
+         * and keep it within given budget by evicting least recently used binaries
+         * 
+         * @param maxBytes total size budget, negative for unlimited
+         * @param maxAgeMillis maximal time since entry last use, negative for unlimited
+         */
+        public UnpackerBuilder setCacheBudget(long maxBytes, long maxAgeMillis) {
+            this.cacheMaxBytes = maxBytes;
+            this.cacheMaxAgeMillis = maxAgeMillis;
+            return this;
+        }
+
         public Unpacker build() {
-            return new Unpacker(name, version, destination, binaries);
+            String destination = this.destination;
+            if (tmpfsMinFree >= 0) {
+                File tmpfs = Tmpfs.find(tmpfsMinFree);
+                if (tmpfs != null) {
+                    destination = tmpfs.getAbsolutePath();
+                }
+            }
+            return new Unpacker(name, version, destination, binaries, cacheMaxBytes, cacheMaxAgeMillis);
         }
     }
 }
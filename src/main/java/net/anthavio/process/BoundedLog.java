@@ -0,0 +1,103 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+
+/**
+ * Ring buffer of last lines. Oldest line is overwritten when capacity is reached, so memory stays fixed no matter how verbose process is
+ * 
+ * Lines are kept as raw bytes, copied into reused slot arrays, and decoded as ISO-8859-1 (same as LineView) only when read,
+ * which normally happens just for startup failure message
+ * 
+ * @author mvanek
+ */
+class BoundedLog extends AbstractList<String> {
+
+    static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    private final byte[][] lines;
+
+    private final int[] lengths;
+
+    private int start = 0;
+
+    private int size = 0;
+
+    private int dropped = 0;
+
+    public BoundedLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.lines = new byte[capacity][];
+        this.lengths = new int[capacity];
+    }
+
+    /**
+     * Copy length bytes of line
+     */
+    public synchronized void add(byte[] line, int length) {
+        int slot;
+        if (size < lines.length) {
+            slot = (start + size++) % lines.length;
+        } else {
+            slot = start;
+            start = (start + 1) % lines.length;
+            ++dropped;
+        }
+        byte[] bytes = lines[slot];
+        if (bytes == null || bytes.length < length) {
+            bytes = lines[slot] = new byte[Math.max(length, 80)];
+        }
+        System.arraycopy(line, 0, bytes, 0, length);
+        lengths[slot] = length;
+    }
+
+    @Override
+    public synchronized String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int slot = (start + index) % lines.length;
+        return new String(lines[slot], 0, lengths[slot], CHARSET);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String string = super.toString();
+        return dropped != 0 ? "(" + dropped + " lines dropped) " + string : string;
+    }
+}
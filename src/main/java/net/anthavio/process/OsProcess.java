@@ -28,16 +28,21 @@
  */
 package net.anthavio.process;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Logger;
 
 /**
  * 
@@ -46,6 +51,19 @@ import java.util.Map;
  */
 public class OsProcess implements Closeable {
 
+    private static final Logger logger = Logger.getLogger(OsProcess.class.getName());
+
+    /**
+     * How long stop() waits for process after Shutdown returned (it might be only asynchronous request)
+     */
+    private static final long STOP_WAIT_MS = 1000;
+
+    static final int DEFAULT_CAPTURE_LINES = 100;
+
+    static final int DEFAULT_FLUSH_BYTES = 8192;
+
+    static final long DEFAULT_FLUSH_MILLIS = 200;
+
     public static OsProcessBuilder Builder() {
         return new OsProcessBuilder();
     }
@@ -54,14 +72,8 @@ public class OsProcess implements Closeable {
         return new OsProcessBuilder(command);
     }
 
-    private final List<String> sysout = new ArrayList<String>();
-
-    private final Object lock = new Object();
-
     private Thread readerThread;
 
-    private Thread shutdownThread;
-
     private final List<String> command;
     private final StartupCheck startupCheck;
     private final File workingDirectory;
@@ -69,14 +81,38 @@ public class OsProcess implements Closeable {
     private final boolean redirectStdErrToStdOut;
     private final OutputStream stdOutStream;
 
-    private Process process;
+    private volatile Process process;
     private final Shutdown shutdown;
 
-    private boolean started = false;
-    private Exception exception = null;
+    private final OutputPump outputPump;
+    private final int captureLines;
+    private final int flushBytes;
+    private final long flushMillis;
+
+    private volatile boolean started = false;
+
+    private volatile long pid = -1;
+
+    private final List<ExitListener> exitListeners = new CopyOnWriteArrayList<ExitListener>();
+
+    private Process exitedProcess; // run whose exit was already reported, guarded by exitListeners
+
+    private int exitedValue;
 
     public OsProcess(List<String> command, StartupCheck startupCheck, Shutdown shutdownHook, File workingDirectory, Map<String, String> environment,
             boolean redirectStdErrToStdOut, OutputStream stdOutStream) {
+        this(command, startupCheck, shutdownHook, workingDirectory, environment, redirectStdErrToStdOut, stdOutStream, null, DEFAULT_CAPTURE_LINES,
+                DEFAULT_FLUSH_BYTES, DEFAULT_FLUSH_MILLIS);
+    }
+
+    /**
+     * @param outputPump shared pump draining process output - when null, dedicated reader thread is started
+     * @param captureLines how many last output lines are kept during startup for startup check and error message 
+     * @param flushBytes stdOutStream is flushed when this many bytes are forwarded...
+     * @param flushMillis ...or this many milliseconds elapsed since last flush, or when process output is drained
+     */
+    public OsProcess(List<String> command, StartupCheck startupCheck, Shutdown shutdownHook, File workingDirectory, Map<String, String> environment,
+            boolean redirectStdErrToStdOut, OutputStream stdOutStream, OutputPump outputPump, int captureLines, int flushBytes, long flushMillis) {
 
         if (command == null || command.size() == 0) {
             throw new IllegalArgumentException("Command is invalid: " + command);
@@ -107,6 +143,18 @@ public class OsProcess implements Closeable {
 
         this.redirectStdErrToStdOut = redirectStdErrToStdOut;
         this.stdOutStream = stdOutStream; //nullable
+        this.outputPump = outputPump; //nullable
+
+        if (captureLines < 1) {
+            throw new IllegalArgumentException("Invalid capture lines: " + captureLines);
+        }
+        this.captureLines = captureLines;
+
+        if (flushBytes < 1) {
+            throw new IllegalArgumentException("Invalid flush bytes: " + flushBytes);
+        }
+        this.flushBytes = flushBytes;
+        this.flushMillis = flushMillis;
     }
 
     /**
@@ -117,22 +165,40 @@ public class OsProcess implements Closeable {
         stop();
     }
 
+    /**
+     * Called by ShutdownCoordinator on JVM exit
+     */
+    void shutdownOnExit() {
+        Process process = this.process;
+        if (process != null) {
+            shutdown.shutdown(process);
+            PidRegistry.remove(pid);
+        }
+    }
+
+    /**
+     * Bounded by Shutdown and STOP_WAIT_MS, never hangs
+     * 
+     * @return exit value or Integer.MIN_VALUE when process was not running or did not end
+     */
     public int stop() {
         int exitValue = Integer.MIN_VALUE;
-        if (shutdownThread != null) {
-            Runtime.getRuntime().removeShutdownHook(shutdownThread);
-            shutdownThread = null;
-        }
+        ShutdownCoordinator.unregister(this);
         if (readerThread != null) {
-            readerThread.interrupt();
+            if (readerThread != Thread.currentThread()) { // stopped by startup listener - interrupt would cut shutdown waits short
+                readerThread.interrupt();
+            }
             readerThread = null;
         }
         if (process != null) {
-            process.destroy();
-            try {
-                exitValue = process.waitFor();
-            } catch (InterruptedException ix) {
-                //ignore...
+            shutdown.shutdown(process);
+            if (Shutdown.EscalatingShutdown.waitFor(process, System.currentTimeMillis() + STOP_WAIT_MS)) {
+                exitValue = process.exitValue();
+                PidRegistry.remove(pid);
+            } else {
+                // never block teardown - registry entry stays, so next JVM kills orphan
+                Object result = shutdown instanceof Shutdown.EscalatingShutdown ? ((Shutdown.EscalatingShutdown) shutdown).getLastResult() : shutdown;
+                logger.warning(command.get(0) + " (pid " + pid + ") did not end. Shutdown " + result);
             }
             process = null;
         }
@@ -141,17 +207,166 @@ public class OsProcess implements Closeable {
     }
 
     public boolean isRunning() {
-        if (started) {
+        Process process = this.process;
+        if (started && process != null) {
+            return isAlive(process);
+        }
+        return false;
+    }
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static final Method IS_ALIVE = getIsAlive();
+
+    private static Method getIsAlive() {
+        try {
+            return Process.class.getMethod("isAlive"); //Java 8
+        } catch (NoSuchMethodException nsmx) {
+            return null;
+        }
+    }
+
+    /**
+     * Process.isAlive when available, so healthy check does not allocate IllegalThreadStateException
+     */
+    static boolean isAlive(Process process) {
+        if (IS_ALIVE != null) {
             try {
-                process.exitValue();
-            } catch (IllegalThreadStateException x) {
-                return true;
+                return (Boolean) IS_ALIVE.invoke(process, NO_ARGS);
+            } catch (Exception x) {
+                //fallback to exitValue
             }
         }
-        return false;
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException x) {
+            return true;
+        }
+    }
+
+    /**
+     * Listener is called once per run, from reaper thread, when started process exits for any reason (including stop). 
+     * Listeners registered before start are kept for this instance. Listener registered after exit was reported 
+     * is called immediately with recorded exit value.
+     */
+    public void onExit(ExitListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener");
+        }
+        Process process = this.process;
+        int exitValue;
+        synchronized (exitListeners) {
+            exitListeners.add(listener);
+            if (process == null || exitedProcess != process) {
+                if (started && process != null) {
+                    ProcessReaper.watch(this, process);
+                }
+                return;
+            }
+            exitValue = exitedValue;
+        }
+        listener.onExit(this, exitValue); // too late for reaper
+    }
+
+    /**
+     * @return resource usage snapshot or null when not running or not on Linux
+     */
+    public ProcessStats sample() {
+        Process process = this.process;
+        if (started && process != null && isAlive(process)) {
+            return ProcessStats.sample(pid);
+        }
+        return null;
+    }
+
+    /**
+     * Sample process every periodMs milliseconds on shared sampler thread until it is stopped or exits
+     */
+    public void addSampleListener(SampleListener listener, long periodMs) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener");
+        }
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + periodMs);
+        }
+        if (!isRunning()) {
+            throw new IllegalStateException("Process is not running " + command.get(0));
+        }
+        ProcessSampler.schedule(this, listener, periodMs);
+    }
+
+    /**
+     * Called by reaper, only first call for particular run notifies listeners
+     */
+    void exited(Process process, int exitValue) {
+        Iterator<ExitListener> listeners; // snapshot, later listeners are called by onExit
+        synchronized (exitListeners) {
+            if (exitedProcess == process) {
+                return;
+            }
+            exitedProcess = process;
+            exitedValue = exitValue;
+            listeners = exitListeners.iterator();
+        }
+        while (listeners.hasNext()) {
+            listeners.next().onExit(this, exitValue);
+        }
+    }
+
+    /**
+     * @return operating system process id or -1 when not started or it cannot be found out
+     */
+    public long getPid() {
+        return pid;
+    }
+
+    /**
+     * @return operating system process id or -1 when it cannot be found out
+     */
+    public static long getPid(Process process) {
+        try {
+            Method method = Process.class.getMethod("pid"); //Java 9
+            return (Long) method.invoke(process);
+        } catch (Exception x) {
+            //older java
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid"); //unix UNIXProcess
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception x) {
+            return -1;
+        }
     }
 
+    /**
+     * Start and wait until StartupCheck fires
+     * 
+     * @throws StartupException on timeout or when process exits before being started
+     */
     public void start(int timeoutMs) {
+        StartupFuture<OsProcess> future = startAsync(timeoutMs);
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof StartupException) {
+                throw (StartupException) ex.getCause();
+            }
+            throw new StartupException("Failed to start " + command.get(0), ex.getCause());
+        } catch (InterruptedException ix) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new StartupException("Interrupted while starting " + command.get(0), ix);
+        }
+    }
+
+    /**
+     * Start without waiting. Returned future completes when StartupCheck fires and fails with StartupException 
+     * on timeout or when process exits before being started. Failed or cancelled startup destroys the process. 
+     */
+    public StartupFuture<OsProcess> startAsync(final int timeoutMs) {
+        final StartupFuture<OsProcess> future = new StartupFuture<OsProcess>();
         ProcessBuilder builder = new ProcessBuilder(command);
         builder.redirectErrorStream(redirectStdErrToStdOut);
         if (workingDirectory != null) {
@@ -162,42 +377,55 @@ public class OsProcess implements Closeable {
             Map<String, String> environment = builder.environment();
             environment.putAll(this.environment);
         }
+        final Process process;
         try {
             process = builder.start();
         } catch (IOException iox) {
-            throw new StartupException("Failed to start " + command.get(0), iox);
+            future.fail(new StartupException("Failed to start " + command.get(0), iox));
+            return future;
         }
+        this.process = process;
+        this.pid = getPid(process);
+        PidRegistry.register(pid, command);
 
-        readerThread = new Thread(new SysoutReaderThread());
-        readerThread.start();
+        final OutputHandler handler = new OutputHandler(new BoundedLog(captureLines), future);
+        final ScheduledFuture<?> timeout = Scheduler.schedule(new Runnable() {
 
-        boolean timeouted = false;
-        synchronized (lock) {
-            try {
-                lock.wait(timeoutMs);
-                timeouted = true;
-            } catch (InterruptedException ix) {
-                //ignore wakeup 
+            @Override
+            public void run() {
+                future.fail(new StartupException(command.get(0) + " not started in " + timeoutMs + " ms\nSystem Out\n:" + handler.getCapture()));
             }
-        }
-        //readerThread.interrupt(); don't
-
-        if (exception != null) {
-            process.destroy();
-            throw new StartupException("Failed to start " + command.get(0), exception);
-        } else if (started == false) {
-            process.destroy();
-            String message;
-            if (timeouted) {
-                message = command.get(0) + " not started in " + timeoutMs + " ms\nSystem Out\n:" + sysout;
-            } else {
-                message = "Failed to start " + command.get(0) + "\nSystem Out\n:" + sysout;
+        }, timeoutMs);
+
+        future.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                timeout.cancel(false);
+                handler.release(); // for every check type, handler lives as long as process
+                if (future.getFailure() != null) {
+                    process.destroy();
+                    PidRegistry.remove(pid);
+                } else {
+                    ShutdownCoordinator.register(OsProcess.this);
+                    if (!exitListeners.isEmpty()) {
+                        ProcessReaper.watch(OsProcess.this, process);
+                    }
+                }
             }
-            throw new StartupException(message);
+        });
+
+        if (startupCheck instanceof StartupCheck.Probe) {
+            new ProbeTask((StartupCheck.Probe) startupCheck, process, future).schedule();
         }
 
-        shutdownThread = new ShutdownHookThread(process, shutdown);
-        Runtime.getRuntime().addShutdownHook(shutdownThread);
+        if (outputPump != null) {
+            outputPump.register(process, process.getInputStream(), handler);
+        } else {
+            readerThread = new SysoutReaderThread(handler);
+            readerThread.start();
+        }
+        return future;
     }
 
     /**
@@ -207,64 +435,301 @@ public class OsProcess implements Closeable {
         return process;
     }
 
-    class SysoutReaderThread extends Thread {
+    /**
+     * Polls StartupCheck.Probe until it succeeds or startup future is done (failed on timeout or process end). 
+     * Probe success counts only while process is still alive
+     */
+    class ProbeTask implements Runnable {
 
-        public SysoutReaderThread() {
-            setDaemon(true);
-            setName("sysout-reader-" + command.get(0));
+        private final StartupCheck.Probe probe;
+
+        private final Process process;
+
+        private final StartupFuture<OsProcess> future;
+
+        private int attempt = 0;
+
+        ProbeTask(StartupCheck.Probe probe, Process process, StartupFuture<OsProcess> future) {
+            this.probe = probe;
+            this.process = process;
+            this.future = future;
+        }
+
+        void schedule() {
+            Scheduler.schedule(this, probe.getDelay(attempt++));
         }
 
         @Override
         public void run() {
+            if (future.isDone()) {
+                return;
+            }
             try {
-                BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                String line = null;
-                while ((line = br.readLine()) != null) {
-                    if (started == false) {
-                        //capture and check only until found
-                        sysout.add(line);
-                        if (startupCheck.isStarted(process, sysout)) {
-                            started = true;
-                            synchronized (lock) {
-                                lock.notifyAll(); //poke timeouter
-                            }
-                            //sysout.clear(); //empty it as not needed anymore?
-                        }
+                if (probe.probe(process)) {
+                    if (isAlive(process)) {
+                        started = true;
+                        future.complete(OsProcess.this);
+                    } // else someone else answered probe - end of process output fails startup together with captured output
+                    return;
+                }
+            } catch (Exception x) {
+                future.fail(new StartupException("Failed to start " + command.get(0), x));
+                return;
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Splits process output into lines for startup check and forwards them into stdOutStream
+     */
+    class OutputHandler implements OutputPump.Sink {
+
+        private final LineView view = new LineView();
+
+        private volatile BoundedLog sysout; // released by completion of startup
+
+        private final StartupFuture<OsProcess> future;
+
+        private byte[] line = new byte[256];
+
+        private int length = 0;
+
+        private final byte[] batch;
+
+        private int batched = 0;
+
+        private long lastFlush = System.currentTimeMillis();
+
+        public OutputHandler(BoundedLog sysout, StartupFuture<OsProcess> future) {
+            this.sysout = sysout;
+            this.future = future;
+            this.batch = stdOutStream != null ? new byte[flushBytes] : null;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            for (int i = offset; i < offset + count && line != null; ++i) {
+                byte b = buffer[i];
+                if (b == '\n') {
+                    onLine();
+                } else {
+                    if (length == line.length) {
+                        byte[] bigger = new byte[line.length * 2];
+                        System.arraycopy(line, 0, bigger, 0, length);
+                        line = bigger;
                     }
-                    //Do not leave - Good practice of emptying process stdout...  
+                    line[length++] = b;
+                }
+            }
+            //Do not leave - Good practice of emptying process stdout...  
+            if (stdOutStream != null) {
+                forward(buffer, offset, count);
+            }
+        }
+
+        /**
+         * Lines are split only while startup check is running
+         */
+        private void onLine() throws IOException {
+            int end = length;
+            if (end > 0 && line[end - 1] == '\r') {
+                --end;
+            }
+            length = 0;
+            BoundedLog sysout = this.sysout;
+            if (sysout == null) {
+                line = null; // startup is done - stop splitting
+                return;
+            }
+            //capture and check only until found
+            sysout.add(line, end);
+            boolean ready;
+            if (startupCheck instanceof StartupCheck.Incremental) {
+                ready = ((StartupCheck.Incremental) startupCheck).isStarted(process, view.of(line, end));
+            } else {
+                ready = startupCheck.isStarted(process, sysout);
+            }
+            if (ready) {
+                started = true;
+                line = null;
+                future.complete(OsProcess.this); // releases capture
+            }
+        }
+
+        /**
+         * Release startup capture - not needed anymore
+         */
+        void release() {
+            sysout = null;
+        }
+
+        String getCapture() {
+            return String.valueOf(sysout);
+        }
+
+        /**
+         * Raw bytes are batched and flushed when flushBytes are collected or flushMillis elapsed since last flush
+         */
+        private void forward(byte[] buffer, int offset, int count) throws IOException {
+            if (batched + count > batch.length) {
+                flush();
+            }
+            if (count >= batch.length) {
+                stdOutStream.write(buffer, offset, count); // too big to batch
+                stdOutStream.flush();
+                lastFlush = System.currentTimeMillis();
+                return;
+            }
+            System.arraycopy(buffer, offset, batch, batched, count);
+            batched += count;
+            if (batched == batch.length || System.currentTimeMillis() - lastFlush >= flushMillis) {
+                flush();
+            }
+        }
 
-                    if (stdOutStream != null) {
-                        stdOutStream.write(line.getBytes());
-                        stdOutStream.write('\n');
-                        stdOutStream.flush();
+        /**
+         * Called also when process output is drained, so nothing stays batched while process is quiet
+         */
+        @Override
+        public void flush() throws IOException {
+            if (batched != 0) {
+                stdOutStream.write(batch, 0, batched);
+                stdOutStream.flush();
+                batched = 0;
+                lastFlush = System.currentTimeMillis();
+            }
+        }
+
+        @Override
+        public void close(Exception x) {
+            if (x == null && started == false && line != null && length != 0) {
+                try {
+                    onLine(); // last line without new line
+                } catch (Exception lx) {
+                    x = lx;
+                }
+            }
+            if (stdOutStream != null) {
+                try {
+                    flush();
+                } catch (IOException iox) {
+                    if (x == null) {
+                        x = iox;
                     }
                 }
-            } catch (Exception x) {
-                exception = x;
+            }
+            if (started == false) {
+                if (x != null) {
+                    future.fail(new StartupException("Failed to start " + command.get(0), x));
+                } else {
+                    future.fail(new StartupException("Failed to start " + command.get(0) + " - process output ended\nSystem Out\n:" + getCapture()));
+                }
+            } else if (!exitListeners.isEmpty()) {
+                ProcessReaper.wakeup(); // process is most likely ending
             }
         }
     }
 
-    static class ShutdownHookThread extends Thread {
+    /**
+     * Reusable CharSequence of ISO-8859-1 bytes, so startup check can match line without decoding
+     */
+    static class LineView implements CharSequence {
 
-        private final Process process;
-        private final Shutdown hook;
+        private byte[] bytes;
 
-        public ShutdownHookThread(Process process, Shutdown hook) {
-            setName("ps-destroyer-" + process);
-            this.process = process;
-            this.hook = hook;
+        private int offset;
+
+        private int length;
+
+        LineView of(byte[] bytes, int length) {
+            return of(bytes, 0, length);
+        }
+
+        LineView of(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+            }
+            return (char) (bytes[offset + index] & 0xFF);
+        }
 
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Start: " + start + ", End: " + end + ", Length: " + length);
+            }
+            return new LineView().of(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; ++i) {
+                chars[i] = (char) (bytes[offset + i] & 0xFF);
+            }
+            return new String(chars);
+        }
+    }
+
+    class SysoutReaderThread extends Thread {
+
+        private final OutputHandler handler;
+
+        public SysoutReaderThread(OutputHandler handler) {
+            this.handler = handler;
+            setDaemon(true);
+            setName("sysout-reader-" + command.get(0));
         }
 
         @Override
         public void run() {
             try {
-                hook.shutdown(process);
+                InputStream input = process.getInputStream();
+                byte[] buffer = new byte[8192];
+                while (true) {
+                    if (stdOutStream != null && input.available() == 0) {
+                        handler.flush(); // going to block - do not hold batched output
+                    }
+                    int read = input.read(buffer);
+                    if (read == -1) {
+                        break;
+                    }
+                    handler.write(buffer, 0, read);
+                }
+                handler.close(null);
             } catch (Exception x) {
-                //ignore...
+                handler.close(x);
             }
         }
     }
 
+    /**
+     * Periodic resource usage notification
+     */
+    public static interface SampleListener {
+
+        public void onSample(OsProcess process, ProcessStats stats);
+    }
+
+    /**
+     * Notification about process exit
+     */
+    public static interface ExitListener {
+
+        public void onExit(OsProcess process, int exitValue);
+    }
+
 }
@@ -59,6 +59,14 @@ public class OsProcessBuilder {
 
     private OutputStream stdOutStream;
 
+    private OutputPump outputPump = Boolean.getBoolean("osprocess.pump.shared") ? OutputPump.shared() : null;
+
+    private int captureLines = OsProcess.DEFAULT_CAPTURE_LINES;
+
+    private int flushBytes = OsProcess.DEFAULT_FLUSH_BYTES;
+
+    private long flushMillis = OsProcess.DEFAULT_FLUSH_MILLIS;
+
     public OsProcessBuilder() {
     }
 
@@ -107,13 +115,40 @@ public class OsProcessBuilder {
         return this;
     }
 
+    /**
+     * Drain process output by (shared) pump instead of dedicated reader thread. 
+     * Use OutputPump.shared() or turn it on globally with -Dosprocess.pump.shared=true
+     */
+    public OsProcessBuilder setOutputPump(OutputPump outputPump) {
+        this.outputPump = outputPump;
+        return this;
+    }
+
+    /**
+     * How many last output lines are kept during startup (for StartupCheck and failure message)
+     */
+    public OsProcessBuilder setStartupCaptureLines(int captureLines) {
+        this.captureLines = captureLines;
+        return this;
+    }
+
+    /**
+     * Process output is copied into stdOutStream as raw bytes in batches. Batch is flushed when flushBytes are collected, 
+     * flushMillis elapsed since previous flush or process output is drained 
+     */
+    public OsProcessBuilder setStdOutFlush(int flushBytes, long flushMillis) {
+        this.flushBytes = flushBytes;
+        this.flushMillis = flushMillis;
+        return this;
+    }
+
     public OsProcessBuilder setWorkingDirectory(File workingDirectory) {
         this.workingDirectory = workingDirectory;
         return this;
     }
 
     public OsProcess build() {
-        return new OsProcess(new ArrayList<String>(command), startupCheck, shutdown, workingDirectory, environment, redirectStdErrToStdOut, stdOutStream);
+        return new OsProcess(new ArrayList<String>(command), startupCheck, shutdown, workingDirectory, environment, redirectStdErrToStdOut, stdOutStream, outputPump, captureLines, flushBytes, flushMillis);
     }
 
     /**
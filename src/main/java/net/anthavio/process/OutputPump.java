@@ -0,0 +1,264 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains output of many processes with small fixed number of threads instead of one blocking reader thread per process.
+ * 
+ * Every worker thread polls InputStream.available() of its processes and reads only what is available, so it never blocks on single process.
+ * Thread count stays same no matter how many processes are pumped. Idle worker backs off polling up to MAX_IDLE_SLEEP_MS
+ * and is woken up when new process is registered.
+ * 
+ * Rest of the output of exited process is read by separate drain thread, because pipe can be still held open 
+ * by grandchild process (like redis BGSAVE fork) and blocking read would stall all processes of the worker.
+ * 
+ * @author mvanek
+ */
+public class OutputPump {
+
+    /**
+     * Receiver of process output. Called from pump thread
+     */
+    public static interface Sink {
+
+        public void write(byte[] buffer, int offset, int length) throws IOException;
+
+        /**
+         * Nothing more is available to read at the moment
+         */
+        public void flush() throws IOException;
+
+        /**
+         * End of stream or read/write failure
+         */
+        public void close(Exception exception);
+    }
+
+    private static OutputPump shared;
+
+    /**
+     * JVM wide pump with osprocess.pump.threads (default 2) threads
+     */
+    public static synchronized OutputPump shared() {
+        if (shared == null) {
+            shared = new OutputPump(Integer.getInteger("osprocess.pump.threads", 2));
+        }
+        return shared;
+    }
+
+    private static final int MIN_IDLE_SLEEP_MS = 5;
+
+    private static final int MAX_IDLE_SLEEP_MS = 50;
+
+    private static final int DETACHED = -2;
+
+    /**
+     * Threads are created only while some exited process still has its output open
+     */
+    private static final ExecutorService DRAINER = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "output-drain-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final int EXIT_CHECK_MS = 200;
+
+    private final Worker[] workers;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public OutputPump(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        }
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    /**
+     * Start pumping process output into sink until end of stream
+     */
+    public void register(Process process, InputStream input, Sink sink) {
+        Worker worker = workers[(next.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+        worker.sources.add(new Source(process, input, sink));
+        worker.wakeup();
+    }
+
+    /**
+     * @return number of pumped streams
+     */
+    public int getSourceCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.sources.size();
+        }
+        return count;
+    }
+
+    private static class Source implements Runnable {
+
+        private final Process process;
+
+        private final InputStream input;
+
+        private final Sink sink;
+
+        private long exitCheck = System.currentTimeMillis();
+
+        Source(Process process, InputStream input, Sink sink) {
+            this.process = process;
+            this.input = input;
+            this.sink = sink;
+        }
+
+        /**
+         * @return -1 on end of stream, DETACHED when handed over to drain thread, otherwise number of bytes pumped
+         */
+        int pump(byte[] buffer) throws IOException {
+            int available = input.available();
+            if (available > 0) {
+                int read = input.read(buffer, 0, Math.min(available, buffer.length));
+                if (read == -1) {
+                    return -1;
+                }
+                sink.write(buffer, 0, read);
+                return read;
+            }
+            sink.flush();
+            // available() is 0 on end of stream as well as when nothing is written yet
+            long now = System.currentTimeMillis();
+            if (now - exitCheck > EXIT_CHECK_MS) {
+                exitCheck = now;
+                if (!OsProcess.isAlive(process)) {
+                    // read blocks until end of stream, which might be long time after exit when grandchild inherited the pipe
+                    DRAINER.execute(this);
+                    return DETACHED;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Drain rest of the output of exited process
+         */
+        @Override
+        public void run() {
+            byte[] buffer = new byte[8192];
+            try {
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    sink.write(buffer, 0, read);
+                    if (input.available() == 0) {
+                        sink.flush();
+                    }
+                }
+                sink.close(null);
+            } catch (Exception x) {
+                sink.close(x);
+            }
+        }
+    }
+
+    private static class Worker extends Thread {
+
+        private final CopyOnWriteArrayList<Source> sources = new CopyOnWriteArrayList<Source>();
+
+        private final byte[] buffer = new byte[8192];
+
+        private volatile long idleSleepMs = MIN_IDLE_SLEEP_MS;
+
+        Worker(int index) {
+            setDaemon(true);
+            setName("output-pump-" + index);
+        }
+
+        void wakeup() {
+            idleSleepMs = MIN_IDLE_SLEEP_MS;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean idle = true;
+                for (Source source : sources) {
+                    try {
+                        int pumped = source.pump(buffer);
+                        if (pumped == -1) {
+                            sources.remove(source);
+                            source.sink.close(null);
+                        } else if (pumped == DETACHED) {
+                            sources.remove(source);
+                        } else if (pumped > 0) {
+                            idle = false;
+                        }
+                    } catch (Exception x) {
+                        sources.remove(source);
+                        source.sink.close(x);
+                    }
+                }
+                if (idle) {
+                    long sleepMs = idleSleepMs;
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(sleepMs));
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                    if (idleSleepMs == sleepMs) { // not woken up meanwhile
+                        idleSleepMs = Math.min(sleepMs * 2, MAX_IDLE_SLEEP_MS);
+                    }
+                } else {
+                    idleSleepMs = MIN_IDLE_SLEEP_MS;
+                }
+            }
+        }
+    }
+}
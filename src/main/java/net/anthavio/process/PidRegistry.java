@@ -0,0 +1,200 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Records started processes into directory (-Dosprocess.pids.dir, java.io.tmpdir/osprocess-pids by default), 
+ * so processes leaked by killed JVM can be found and killed by next one.
+ * 
+ * Entry is [pid].pid properties file with pid, start time, command and owner JVM pid and start time. 
+ * Orphan is killed only when owner JVM is gone and process with recorded pid still has recorded start time. 
+ * Command line is not compared, because processes like redis-server rewrite it (process title) after start. 
+ * Sweeping works on Linux only (needs /proc).
+ * 
+ * @author mvanek
+ */
+public class PidRegistry {
+
+    private static final Logger logger = Logger.getLogger(PidRegistry.class.getName());
+
+    private static final String SUFFIX = ".pid";
+
+    private static final File DIRECTORY = new File(System.getProperty("osprocess.pids.dir", new File(System.getProperty("java.io.tmpdir"),
+            "osprocess-pids").getPath()));
+
+    private static final AtomicBoolean swept = new AtomicBoolean(false);
+
+    private static long ownerPid = -2;
+
+    private static long ownerStart = -1;
+
+    static void register(long pid, List<String> command) {
+        if (pid == -1) {
+            return;
+        }
+        sweepOnce();
+        Properties entry = new Properties();
+        entry.setProperty("pid", String.valueOf(pid));
+        entry.setProperty("start", String.valueOf(Procfs.readStartTime(pid)));
+        entry.setProperty("command", join(command));
+        entry.setProperty("owner", String.valueOf(getOwnerPid()));
+        entry.setProperty("ownerStart", String.valueOf(ownerStart));
+        DIRECTORY.mkdirs();
+        File file = new File(DIRECTORY, pid + SUFFIX);
+        try {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                entry.store(output, null);
+            } finally {
+                output.close();
+            }
+        } catch (IOException iox) {
+            logger.fine("Cannot write pid entry " + file + " " + iox);
+        }
+    }
+
+    static void remove(long pid) {
+        if (pid != -1) {
+            new File(DIRECTORY, pid + SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Sweep only before first process is started
+     */
+    static void sweepOnce() {
+        if (swept.compareAndSet(false, true)) {
+            sweep();
+        }
+    }
+
+    /**
+     * Kill processes of dead JVMs and remove stale entries
+     * 
+     * @return number of killed orphans
+     */
+    public static int sweep() {
+        File[] files = DIRECTORY.listFiles();
+        if (files == null || !new File("/proc/self").exists()) {
+            return 0;
+        }
+        int killed = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            Properties entry = load(file);
+            if (entry == null) {
+                continue;
+            }
+            try {
+                long owner = Long.parseLong(entry.getProperty("owner"));
+                long start = Long.parseLong(entry.getProperty("ownerStart"));
+                if (isAlive(owner, start)) {
+                    continue;
+                }
+                long pid = Long.parseLong(entry.getProperty("pid"));
+                long pidStart = Long.parseLong(entry.getProperty("start", "-1"));
+                if (pidStart != -1 && isAlive(pid, pidStart)) { // not reused pid
+                    logger.info("Killing orphan " + pid + " of dead JVM " + owner + ": " + entry.getProperty("command").replace('\0', ' '));
+                    if (new ProcessBuilder("kill", "-9", String.valueOf(pid)).start().waitFor() == 0) {
+                        ++killed;
+                    }
+                }
+                file.delete();
+            } catch (Exception x) {
+                logger.fine("Cannot sweep pid entry " + file + " " + x);
+            }
+        }
+        return killed;
+    }
+
+    /**
+     * Same pid with same start time and not zombie (killed process might not be reaped yet)
+     */
+    private static boolean isAlive(long pid, long start) {
+        String[] stat = pid != -1 ? Procfs.readStat(pid) : null;
+        return stat != null && stat.length > 19 && !stat[0].equals("Z") && Long.parseLong(stat[19]) == start;
+    }
+
+    private static Properties load(File file) {
+        try {
+            InputStream input = new FileInputStream(file);
+            try {
+                Properties entry = new Properties();
+                entry.load(input);
+                return entry;
+            } finally {
+                input.close();
+            }
+        } catch (IOException iox) {
+            return null; // deleted meanwhile
+        }
+    }
+
+    private static String join(List<String> command) {
+        StringBuilder sb = new StringBuilder();
+        for (String argument : command) {
+            if (sb.length() != 0) {
+                sb.append('\0');
+            }
+            sb.append(argument);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * RuntimeMXBean name is pid@hostname on all known JVMs
+     */
+    private static synchronized long getOwnerPid() {
+        if (ownerPid == -2) {
+            String name = ManagementFactory.getRuntimeMXBean().getName();
+            int at = name.indexOf('@');
+            try {
+                ownerPid = Long.parseLong(at != -1 ? name.substring(0, at) : name);
+                ownerStart = Procfs.readStartTime(ownerPid);
+            } catch (NumberFormatException nfx) {
+                ownerPid = -1;
+            }
+        }
+        return ownerPid;
+    }
+}
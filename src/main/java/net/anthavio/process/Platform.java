@@ -85,11 +85,21 @@ public class Platform {
 
         private final String osArch = System.getProperty("os.arch");
 
-        private final String sysinfo; //uname or systeminfo on windows
+        private String sysinfo; //uname or systeminfo on windows
+
+        private boolean sysinfoDone;
+
+        /**
+         * Sysinfo will be computed on first getSysinfo() call
+         */
+        public DetectedPlatform(Os os, Arch arch, Bit osBits, Bit jvmBits) {
+            super(os, arch, osBits, jvmBits);
+        }
 
         public DetectedPlatform(Os os, Arch arch, Bit osBits, Bit jvmBits, String uname) {
             super(os, arch, osBits, jvmBits);
             this.sysinfo = uname;
+            this.sysinfoDone = true;
         }
 
         public String getOsName() {
@@ -100,14 +110,79 @@ public class Platform {
             return osArch;
         }
 
-        public String getSysinfo() {
+        /**
+         * Lazy as it might require forking uname or systeminfo, which can take seconds
+         */
+        public synchronized String getSysinfo() {
+            if (!sysinfoDone) {
+                sysinfo = detectSysinfo(getOs());
+                sysinfoDone = true;
+            }
             return sysinfo;
         }
 
+        public int getCpuCores() {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        /**
+         * @return physical memory in bytes or -1 when unknown (non Linux)
+         */
+        public long getTotalMemory() {
+            return Procfs.readMeminfo("MemTotal");
+        }
+
+        /**
+         * Read freshly on every call
+         * 
+         * @return memory available for new processes in bytes or -1 when unknown (non Linux)
+         */
+        public long getAvailableMemory() {
+            long available = Procfs.readMeminfo("MemAvailable");
+            if (available == -1) {
+                // kernels before 3.14
+                long free = Procfs.readMeminfo("MemFree");
+                if (free != -1) {
+                    available = free + Math.max(0, Procfs.readMeminfo("Buffers")) + Math.max(0, Procfs.readMeminfo("Cached"));
+                }
+            }
+            return available;
+        }
+
+        /**
+         * @return selected transparent huge pages mode (always, madvise, never) or null when unknown (non Linux)
+         */
+        public String getTransparentHugePages() {
+            String enabled = Procfs.readLine("/sys/kernel/mm/transparent_hugepage/enabled"); // always [madvise] never
+            if (enabled != null) {
+                int start = enabled.indexOf('[');
+                int end = enabled.indexOf(']', start);
+                if (start != -1 && end != -1) {
+                    return enabled.substring(start + 1, end);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return vm.overcommit_memory (0 heuristic, 1 always, 2 never) or -1 when unknown (non Linux)
+         */
+        public int getOvercommitMemory() {
+            String overcommit = Procfs.readLine("/proc/sys/vm/overcommit_memory");
+            if (overcommit != null) {
+                try {
+                    return Integer.parseInt(overcommit);
+                } catch (NumberFormatException nfx) {
+                    //unknown
+                }
+            }
+            return -1;
+        }
+
         @Override
         public String toString() {
             return "DetectedOsArch [Os=" + getOs() + " (" + osName + "), Arch=" + getArch() + " (" + osArch + "), OsBit=" + getOsBits() + ", JvmBit=" + getVmBits() + ", SysInfo='"
-                    + sysinfo + "' ]";
+                    + getSysinfo() + "' ]";
         }
     }
 
@@ -119,17 +194,29 @@ public class Platform {
             Arch arch = detectArch();
             Bit osBits = detectOsBits(os);
             Bit jvmBits = detectJvmBits();
-            String sysinfo;
-            if (os == Os.WINDOWS) {
-                sysinfo = execShell("systeminfo");
-            } else {
-                sysinfo = execShell("uname -a");
-            }
-            detected = new DetectedPlatform(os, arch, osBits, jvmBits, sysinfo);
+            detected = new DetectedPlatform(os, arch, osBits, jvmBits);
         }
         return detected;
     }
 
+    /**
+     * Linux uname -a equivalent is assembled from /proc/sys/kernel without forking
+     */
+    public static String detectSysinfo(Os os) {
+        if (os == Os.LINUX || os == Os.ANDROID) {
+            String ostype = Procfs.readLine("/proc/sys/kernel/ostype");
+            if (ostype != null) {
+                return ostype + " " + Procfs.readLine("/proc/sys/kernel/hostname") + " " + Procfs.readLine("/proc/sys/kernel/osrelease") + " "
+                        + Procfs.readLine("/proc/sys/kernel/version") + " " + System.getProperty("os.arch");
+            }
+        }
+        if (os == Os.WINDOWS) {
+            return execShell("systeminfo");
+        } else {
+            return execShell("uname -a");
+        }
+    }
+
     public static Os detectOs() {
         Os os;
         String osName = System.getProperty("os.name", "").toLowerCase();
@@ -178,6 +265,11 @@ public class Platform {
                 System.getProperty("os.arch", "").contains("64") || // x86_64
                 System.getProperty("com.ibm.vm.bitmode", "").contains("64")) {
             return Bit.B64;
+        } else if (os == Os.LINUX || os == Os.ANDROID) {
+            Bit bits = detectLinuxBits();
+            if (bits != Bit.UNSET) {
+                return bits;
+            }
         } else if (os == Os.MACOS) {
             // Macosx: uname -m -> i386/x86_64
             String uname = execShell("uname -m");
@@ -207,6 +299,22 @@ public class Platform {
 
     }
 
+    /**
+     * 32bit JVM on 64bit kernel is revealed by /proc/sys/kernel/arch (newer kernels only). 
+     * Otherwise ELF class of running JVM executable is the best we can get without forking uname -m
+     */
+    private static Bit detectLinuxBits() {
+        String arch = Procfs.readLine("/proc/sys/kernel/arch");
+        if (arch != null && arch.length() != 0) {
+            return arch.contains("64") || arch.equals("s390x") ? Bit.B64 : Bit.B32;
+        }
+        byte[] elf = Procfs.readElfHeader("/proc/self/exe");
+        if (elf != null) {
+            return Procfs.getElfBits(elf);
+        }
+        return Bit.UNSET;
+    }
+
     /**
      * Be aware that os.arch returns JVM bit related iformations rather than OS
      * And because 32bit JVM can be running on 64bit OS, mistake can happen easily
@@ -237,10 +345,12 @@ public class Platform {
             return Arch.PARISC;
         } else if (osArch.contains("ia64")) {
             return Arch.IA64;
-        } else if (osArch.contains("arm")) {
+        } else if (osArch.contains("arm") || osArch.contains("aarch64")) {
             return Arch.ARM;
         } else {
-            return Arch.UNSET;
+            // unknown os.arch - look at machine of running JVM executable
+            byte[] elf = Procfs.readElfHeader("/proc/self/exe");
+            return elf != null ? Procfs.getElfArch(elf) : Arch.UNSET;
         }
     }
 
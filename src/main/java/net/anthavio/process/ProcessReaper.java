@@ -0,0 +1,114 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single daemon thread detecting exit of all watched processes. Polls cheap liveness check 
+ * (-Dosprocess.reaper.interval milliseconds, 50 by default) and is woken up immediately 
+ * when process output stream ends. Thread is started only when there is something to watch.
+ * 
+ * @author mvanek
+ */
+class ProcessReaper extends Thread {
+
+    private static final long INTERVAL_MS = Long.getLong("osprocess.reaper.interval", 50);
+
+    private static ProcessReaper instance;
+
+    private final Map<Process, OsProcess> watched = new ConcurrentHashMap<Process, OsProcess>();
+
+    private boolean wakeup = false;
+
+    private ProcessReaper() {
+        setName("osprocess-reaper");
+        setDaemon(true);
+    }
+
+    private static synchronized ProcessReaper instance() {
+        if (instance == null) {
+            instance = new ProcessReaper();
+            instance.start();
+        }
+        return instance;
+    }
+
+    static void watch(OsProcess owner, Process process) {
+        ProcessReaper reaper = instance();
+        reaper.watched.put(process, owner);
+        reaper.poke();
+    }
+
+    /**
+     * Check now - output of process ended
+     */
+    static void wakeup() {
+        ProcessReaper reaper;
+        synchronized (ProcessReaper.class) {
+            reaper = instance;
+        }
+        if (reaper != null) {
+            reaper.poke();
+        }
+    }
+
+    private synchronized void poke() {
+        wakeup = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            for (Map.Entry<Process, OsProcess> entry : watched.entrySet()) {
+                Process process = entry.getKey();
+                if (!OsProcess.isAlive(process)) {
+                    watched.remove(process);
+                    try {
+                        entry.getValue().exited(process, process.exitValue());
+                    } catch (Exception x) {
+                        //ignore listener failure...
+                    }
+                }
+            }
+            synchronized (this) {
+                try {
+                    if (!wakeup) {
+                        wait(INTERVAL_MS);
+                    }
+                } catch (InterruptedException ix) {
+                    return;
+                }
+                wakeup = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single daemon thread sampling resource usage of all processes with SampleListener. 
+ * Separated from Scheduler so /proc reads never delay startup timeouts and probes.
+ * 
+ * @author mvanek
+ */
+class ProcessSampler {
+
+    private static ScheduledExecutorService executor;
+
+    private static synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "osprocess-sampler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * Sampling ends when process is stopped or exits
+     */
+    public static void schedule(final OsProcess process, final OsProcess.SampleListener listener, long periodMs) {
+        final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+        Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                ProcessStats stats = process.sample();
+                if (stats == null) {
+                    synchronized (self) {
+                        self[0].cancel(false);
+                    }
+                    return;
+                }
+                try {
+                    listener.onSample(process, stats);
+                } catch (Exception x) {
+                    //ignore listener failure...
+                }
+            }
+        };
+        synchronized (self) {
+            self[0] = executor().scheduleAtFixedRate(task, 0, periodMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Snapshot of process resource usage read from /proc/[pid]/stat, status and fd (Linux only)
+ * 
+ * @author mvanek
+ */
+public class ProcessStats {
+
+    /**
+     * USER_HZ - /proc clock tick is 100 Hz on all Linux architectures we run on
+     */
+    private static final long TICK_MILLIS = 10;
+
+    private final long pid;
+
+    private final long timestamp;
+
+    private final long userMillis;
+
+    private final long systemMillis;
+
+    private final long rss;
+
+    private final long peakRss;
+
+    private final int threads;
+
+    private final long voluntarySwitches;
+
+    private final long involuntarySwitches;
+
+    private final int openFiles;
+
+    ProcessStats(long pid, long timestamp, long userMillis, long systemMillis, long rss, long peakRss, int threads, long voluntarySwitches,
+            long involuntarySwitches, int openFiles) {
+        this.pid = pid;
+        this.timestamp = timestamp;
+        this.userMillis = userMillis;
+        this.systemMillis = systemMillis;
+        this.rss = rss;
+        this.peakRss = peakRss;
+        this.threads = threads;
+        this.voluntarySwitches = voluntarySwitches;
+        this.involuntarySwitches = involuntarySwitches;
+        this.openFiles = openFiles;
+    }
+
+    /**
+     * @return null when process does not exist or /proc is not available
+     */
+    public static ProcessStats sample(long pid) {
+        if (pid == -1) {
+            return null;
+        }
+        long timestamp = System.currentTimeMillis();
+        String[] stat = Procfs.readStat(pid);
+        Map<String, String> status = Procfs.readKeyValues("/proc/" + pid + "/status");
+        if (stat == null || stat.length < 18 || status == null) {
+            return null;
+        }
+        String[] fds = new File("/proc/" + pid + "/fd").list(); // null when not permitted
+        try {
+            return new ProcessStats(pid, timestamp, Long.parseLong(stat[11]) * TICK_MILLIS, Long.parseLong(stat[12]) * TICK_MILLIS, //
+                    kilobytes(status.get("VmRSS")), kilobytes(status.get("VmHWM")), Integer.parseInt(stat[17]), //
+                    number(status.get("voluntary_ctxt_switches")), number(status.get("nonvoluntary_ctxt_switches")), //
+                    fds != null ? fds.length : -1);
+        } catch (NumberFormatException nfx) {
+            return null;
+        }
+    }
+
+    private static long kilobytes(String value) {
+        if (value == null) {
+            return -1; // zombie has no memory lines
+        }
+        int space = value.indexOf(' ');
+        return Long.parseLong(space != -1 ? value.substring(0, space) : value) * 1024;
+    }
+
+    private static long number(String value) {
+        return value != null ? Long.parseLong(value) : -1;
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    /**
+     * @return System.currentTimeMillis() when sample was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return CPU time spent in user mode
+     */
+    public long getUserMillis() {
+        return userMillis;
+    }
+
+    /**
+     * @return CPU time spent in kernel mode
+     */
+    public long getSystemMillis() {
+        return systemMillis;
+    }
+
+    /**
+     * @return resident set size in bytes
+     */
+    public long getRss() {
+        return rss;
+    }
+
+    /**
+     * @return peak resident set size in bytes (VmHWM)
+     */
+    public long getPeakRss() {
+        return peakRss;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getVoluntarySwitches() {
+        return voluntarySwitches;
+    }
+
+    public long getInvoluntarySwitches() {
+        return involuntarySwitches;
+    }
+
+    /**
+     * @return number of open file descriptors or -1 when not permitted to list them
+     */
+    public int getOpenFiles() {
+        return openFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessStats [pid=" + pid + ", user=" + userMillis + "ms, system=" + systemMillis + "ms, rss=" + rss + ", peakRss=" + peakRss
+                + ", threads=" + threads + ", voluntarySwitches=" + voluntarySwitches + ", involuntarySwitches=" + involuntarySwitches
+                + ", openFiles=" + openFiles + "]";
+    }
+}
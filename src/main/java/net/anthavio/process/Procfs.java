@@ -0,0 +1,215 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Linux /proc and /sys readers - no forking of uname and friends
+ * 
+ * @author mvanek
+ */
+class Procfs {
+
+    public static final int ELF_UNKNOWN = -1;
+
+    /**
+     * @return first line of file (trimmed) or null when it does not exist or cannot be read
+     */
+    public static String readLine(String path) {
+        File file = new File(path);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                return line != null ? line.trim() : null;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException iox) {
+            return null;
+        }
+    }
+
+    /**
+     * @return value of /proc/meminfo line in bytes or -1 when not found
+     */
+    public static long readMeminfo(String key) {
+        File file = new File("/proc/meminfo");
+        if (!file.exists()) {
+            return -1;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // MemAvailable:    5960152 kB
+                    if (line.startsWith(key) && line.length() > key.length() && line.charAt(key.length()) == ':') {
+                        String[] fields = line.substring(key.length() + 1).trim().split("\\s+");
+                        long value = Long.parseLong(fields[0]);
+                        return fields.length > 1 && fields[1].equals("kB") ? value * 1024 : value;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException iox) {
+            //unknown
+        } catch (NumberFormatException nfx) {
+            //unknown
+        }
+        return -1;
+    }
+
+    /**
+     * @return /proc/[pid]/stat fields after command (state is at index 0) or null when process does not exist
+     */
+    public static String[] readStat(long pid) {
+        String line = readLine("/proc/" + pid + "/stat");
+        if (line == null) {
+            return null;
+        }
+        int paren = line.lastIndexOf(')'); // command may contain spaces and parenthesis
+        return line.substring(paren + 2).split(" ");
+    }
+
+    /**
+     * @return "Key: value" lines of /proc/[pid]/status like file or null when it does not exist
+     */
+    public static Map<String, String> readKeyValues(String path) {
+        File file = new File(path);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                Map<String, String> values = new HashMap<String, String>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int colon = line.indexOf(':');
+                    if (colon != -1) {
+                        values.put(line.substring(0, colon), line.substring(colon + 1).trim());
+                    }
+                }
+                return values;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException iox) {
+            return null;
+        }
+    }
+
+    /**
+     * @return process start time in clock ticks since boot or -1 when process does not exist
+     */
+    public static long readStartTime(long pid) {
+        String[] stat = readStat(pid);
+        return stat != null && stat.length > 19 ? Long.parseLong(stat[19]) : -1;
+    }
+
+    /**
+     * @return first 20 bytes of ELF header (up to e_machine) or null when file is not ELF
+     */
+    public static byte[] readElfHeader(String path) {
+        byte[] header = new byte[20];
+        try {
+            InputStream input = new FileInputStream(path);
+            try {
+                int offset = 0;
+                while (offset < header.length) {
+                    int read = input.read(header, offset, header.length - offset);
+                    if (read == -1) {
+                        return null;
+                    }
+                    offset += read;
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException iox) {
+            return null;
+        }
+        if (header[0] != 0x7F || header[1] != 'E' || header[2] != 'L' || header[3] != 'F') {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * EI_CLASS: 1 = 32 bit, 2 = 64 bit
+     */
+    public static Bit getElfBits(byte[] header) {
+        switch (header[4]) {
+        case 1:
+            return Bit.B32;
+        case 2:
+            return Bit.B64;
+        default:
+            return Bit.UNSET;
+        }
+    }
+
+    /**
+     * e_machine in byte order given by EI_DATA (1 = little endian, 2 = big endian)
+     */
+    public static Arch getElfArch(byte[] header) {
+        int machine = header[5] == 2 ? ((header[18] & 0xFF) << 8) | (header[19] & 0xFF) : ((header[19] & 0xFF) << 8) | (header[18] & 0xFF);
+        switch (machine) {
+        case 3: // EM_386
+        case 62: // EM_X86_64
+            return Arch.X86;
+        case 2: // EM_SPARC
+        case 18: // EM_SPARC32PLUS
+        case 43: // EM_SPARCV9
+            return Arch.SPARC;
+        case 20: // EM_PPC
+        case 21: // EM_PPC64
+            return Arch.POWER;
+        case 15: // EM_PARISC
+            return Arch.PARISC;
+        case 50: // EM_IA_64
+            return Arch.IA64;
+        case 40: // EM_ARM
+        case 183: // EM_AARCH64
+            return Arch.ARM;
+        default:
+            return Arch.UNSET;
+        }
+    }
+}
@@ -28,6 +28,8 @@
  */
 package net.anthavio.process;
 
+import java.lang.reflect.Method;
+
 /**
  * 
  * @author mvanek
@@ -37,19 +39,153 @@ public interface Shutdown {
 
     public void shutdown(Process process);
 
-    public static class DefaultShutdown implements Shutdown {
+    /**
+     * How was process ended
+     */
+    public static enum Path {
+        ALREADY_ENDED, GRACEFUL, TERMINATED, KILLED, FAILED;
+    }
+
+    /**
+     * Outcome of last shutdown - chosen path and time spent
+     */
+    public static class Result {
+
+        private final Path path;
+
+        private final long millis;
+
+        public Result(Path path, long millis) {
+            this.path = path;
+            this.millis = millis;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return path + " in " + millis + " ms";
+        }
+    }
+
+    /**
+     * Asks process to end (protocol command, nothing by default), then SIGTERM (Process.destroy), 
+     * then forcible kill. Every step waits bounded time so shutdown never hangs.
+     * 
+     * @author mvanek
+     */
+    public static class EscalatingShutdown implements Shutdown {
+
+        private final long gracefulMs;
+
+        private final long terminateMs;
+
+        private volatile Result lastResult;
+
+        public EscalatingShutdown(long gracefulMs, long terminateMs) {
+            this.gracefulMs = gracefulMs;
+            this.terminateMs = terminateMs;
+        }
+
+        /**
+         * Override to ask process to end gracefully
+         * 
+         * @return false when request was not sent or was refused
+         */
+        protected boolean request(Process process, long timeoutMs) {
+            return false;
+        }
 
         @Override
         public void shutdown(Process process) {
-            if (process != null) {
+            if (process == null) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            Path path;
+            if (!OsProcess.isAlive(process)) {
+                path = Path.ALREADY_ENDED;
+            } else if (gracefulMs > 0 && request(process, gracefulMs) && waitFor(process, start + gracefulMs)) {
+                path = Path.GRACEFUL;
+            } else {
+                process.destroy();
+                if (waitFor(process, System.currentTimeMillis() + terminateMs)) {
+                    path = Path.TERMINATED;
+                } else if (kill(process) && waitFor(process, System.currentTimeMillis() + terminateMs)) {
+                    path = Path.KILLED;
+                } else {
+                    path = Path.FAILED;
+                }
+            }
+            lastResult = new Result(path, System.currentTimeMillis() - start);
+        }
+
+        /**
+         * @return null when shutdown was not executed yet
+         */
+        public Result getLastResult() {
+            return lastResult;
+        }
+
+        /**
+         * @return true when process ended before deadline
+         */
+        static boolean waitFor(Process process, long deadline) {
+            long sleep = 1;
+            while (OsProcess.isAlive(process)) {
+                long remains = deadline - System.currentTimeMillis();
+                if (remains <= 0) {
+                    return false;
+                }
                 try {
-                    process.exitValue();
-                    return; //ok - process already ended
-                } catch (IllegalThreadStateException itx) {
-                    //ok - process still running
+                    Thread.sleep(Math.min(sleep, remains));
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                    return !OsProcess.isAlive(process);
                 }
-                process.destroy();
+                sleep = Math.min(sleep * 2, 20);
+            }
+            return true;
+        }
+
+        /**
+         * Process.destroyForcibly since Java 8, kill -9 on older unix JVMs
+         */
+        private static boolean kill(Process process) {
+            try {
+                Method method = Process.class.getMethod("destroyForcibly");
+                method.invoke(process);
+                return true;
+            } catch (NoSuchMethodException nsmx) {
+                //Java 6, 7
+            } catch (Exception x) {
+                return false;
+            }
+            long pid = OsProcess.getPid(process);
+            if (pid == -1) {
+                return false;
             }
+            try {
+                return new ProcessBuilder("kill", "-9", String.valueOf(pid)).start().waitFor() == 0;
+            } catch (Exception x) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * SIGTERM, followed by forcible kill after 5 seconds
+     */
+    public static class DefaultShutdown extends EscalatingShutdown {
+
+        public DefaultShutdown() {
+            super(0, 5000);
         }
 
     }
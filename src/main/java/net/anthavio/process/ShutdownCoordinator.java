@@ -0,0 +1,153 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single JVM shutdown hook for all started processes. Live processes are stopped in parallel 
+ * with overall deadline (-Dosprocess.shutdown.deadline milliseconds, 10 seconds by default), 
+ * so JVM exit does not take longer with more processes. Cleanup tasks (temporary files of processes) run after that.
+ * 
+ * @author mvanek
+ */
+public class ShutdownCoordinator {
+
+    private static final long DEADLINE_MS = Long.getLong("osprocess.shutdown.deadline", 10000);
+
+    private static final int MAX_THREADS = 32;
+
+    private static final Set<OsProcess> live = Collections.newSetFromMap(new ConcurrentHashMap<OsProcess, Boolean>());
+
+    private static final Set<Runnable> cleanups = Collections.newSetFromMap(new ConcurrentHashMap<Runnable, Boolean>());
+
+    private static volatile boolean hooked = false;
+
+    static void register(OsProcess process) {
+        if (!hooked) {
+            hook();
+        }
+        live.add(process);
+    }
+
+    /**
+     * Run task on JVM exit, after processes are stopped. Remove it once cleanup was done explicitly, 
+     * so tasks do not pile up like File.deleteOnExit entries
+     */
+    public static void addCleanup(Runnable cleanup) {
+        if (!hooked) {
+            hook();
+        }
+        cleanups.add(cleanup);
+    }
+
+    public static void removeCleanup(Runnable cleanup) {
+        cleanups.remove(cleanup);
+    }
+
+    static void unregister(OsProcess process) {
+        live.remove(process);
+    }
+
+    /**
+     * @return number of started and not yet stopped processes
+     */
+    public static int getLiveCount() {
+        return live.size();
+    }
+
+    private static synchronized void hook() {
+        if (!hooked) {
+            Runtime.getRuntime().addShutdownHook(new Thread("osprocess-shutdown") {
+
+                @Override
+                public void run() {
+                    shutdownAll(DEADLINE_MS);
+                    for (Runnable cleanup : cleanups) {
+                        try {
+                            cleanup.run();
+                        } catch (Exception x) {
+                            //ignore...
+                        }
+                    }
+                }
+            });
+            hooked = true;
+        }
+    }
+
+    /**
+     * @return processes not stopped before deadline
+     */
+    static int shutdownAll(long deadlineMs) {
+        List<OsProcess> processes = new ArrayList<OsProcess>(live);
+        if (processes.isEmpty()) {
+            return 0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(processes.size(), MAX_THREADS), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "osprocess-shutdown-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final OsProcess process : processes) {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        process.shutdownOnExit();
+                        live.remove(process);
+                    } catch (Exception x) {
+                        //ignore...
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ix) {
+            //ignore...
+        }
+        executor.shutdownNow();
+        return live.size();
+    }
+}
@@ -29,6 +29,7 @@
 package net.anthavio.process;
 
 import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -38,8 +39,43 @@ import java.util.regex.Pattern;
  */
 public interface StartupCheck {
 
+    /**
+     * @param sysOutErr captured output lines (bounded - only last lines are kept for verbose processes)
+     */
     public boolean isStarted(Process process, List<String> sysOutErr);
 
+    /**
+     * Check receiving one new line at a time, so startup detection costs O(n) in output length instead of O(n^2) 
+     * 
+     * Line is a view of process output bytes as ISO-8859-1 characters, valid only during the call. Process end is detected 
+     * by end of its output, so check does not have to test process liveness.
+     * 
+     * @author mvanek
+     */
+    public static interface Incremental extends StartupCheck {
+
+        public boolean isStarted(Process process, CharSequence line);
+    }
+
+    /**
+     * Check actively polled by OsProcess (on shared scheduler thread) instead of waiting for process output. 
+     * Works even when process output goes elsewhere (log file)
+     * 
+     * @author mvanek
+     */
+    public static interface Probe extends StartupCheck {
+
+        /**
+         * Must return quickly, blocking shared scheduler thread
+         */
+        public boolean probe(Process process) throws Exception;
+
+        /**
+         * @return milliseconds to wait before attempt number (starting from 0)
+         */
+        public long getDelay(int attempt);
+    }
+
     /**
      * Checks only if process is still alive
      * 
@@ -65,12 +101,22 @@ public interface StartupCheck {
      *  
      * @author mvanek
      */
-    public static class SysoutRegexCheck extends DefaultStartupCheck {
+    public static class SysoutRegexCheck extends DefaultStartupCheck implements Incremental {
 
         private final Pattern pattern;
 
+        private final Matcher matcher;
+
         public SysoutRegexCheck(String regex) {
             this.pattern = Pattern.compile(regex);
+            this.matcher = pattern.matcher("");
+        }
+
+        @Override
+        public boolean isStarted(Process process, CharSequence line) {
+            synchronized (matcher) {
+                return matcher.reset(line).find();
+            }
         }
 
         @Override
@@ -0,0 +1,186 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Java 6 compatible Future of asynchronous start. Completes when StartupCheck fires, 
+ * fails with StartupException on timeout or when process exits before being started.
+ * 
+ * @author mvanek
+ */
+public class StartupFuture<V> implements Future<V> {
+
+    private static final Logger logger = Logger.getLogger(StartupFuture.class.getName());
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private final List<Runnable> listeners = new ArrayList<Runnable>(2);
+
+    private boolean done;
+
+    private V value;
+
+    private Throwable failure;
+
+    /**
+     * @return true when this call completed future
+     */
+    public boolean complete(V value) {
+        return finish(value, null);
+    }
+
+    /**
+     * @return true when this call failed future
+     */
+    public boolean fail(Throwable failure) {
+        if (failure == null) {
+            throw new IllegalArgumentException("Null failure");
+        }
+        return finish(null, failure);
+    }
+
+    private boolean finish(V value, Throwable failure) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.value = value;
+            this.failure = failure;
+            listeners = new ArrayList<Runnable>(this.listeners);
+            this.listeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            run(listener);
+        }
+        latch.countDown(); // waiters see effects of listeners
+        return true;
+    }
+
+    /**
+     * Failing listener must neither skip the others nor throw into completing thread (reader, pump, scheduler)
+     */
+    private static void run(Runnable listener) {
+        try {
+            listener.run();
+        } catch (Throwable x) {
+            logger.log(Level.WARNING, "Startup listener failed " + listener, x);
+        }
+    }
+
+    /**
+     * Listener is executed by completing thread, before get() returns, or immediately when already done
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        run(listener);
+    }
+
+    /**
+     * @return future completed by given value when this one completes or failed the same way as this one fails
+     */
+    public <T> StartupFuture<T> thenReturn(final T result) {
+        final StartupFuture<T> future = new StartupFuture<T>();
+        addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                Throwable failure = getFailure();
+                if (failure != null) {
+                    future.fail(failure);
+                } else {
+                    future.complete(result);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return failure cause or null when not done or completed successfully
+     */
+    public synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return fail(new CancellationException("Startup cancelled"));
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return failure instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private synchronized V result() throws ExecutionException {
+        if (failure instanceof CancellationException) {
+            throw (CancellationException) failure;
+        } else if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+/**
+ * Outcome of RedisServer.bulkLoad
+ * 
+ * @author mvanek
+ */
+public class BulkLoadResult {
+
+    private final long commands;
+
+    private final long errors;
+
+    private final String firstError;
+
+    private final long millis;
+
+    BulkLoadResult(long commands, long errors, String firstError, long millis) {
+        this.commands = commands;
+        this.errors = errors;
+        this.firstError = firstError;
+        this.millis = millis;
+    }
+
+    public long getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return number of error replies
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return first error reply or null when there was none
+     */
+    public String getFirstError() {
+        return firstError;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public double getCommandsPerSecond() {
+        return millis != 0 ? commands * 1000d / millis : commands;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadResult [commands=" + commands + ", errors=" + errors + ", millis=" + millis + ", firstError=" + firstError + "]";
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Mass insert in the way of redis-cli --pipe. Commands are encoded by RespWriter into reusable direct buffer and written 
+ * over one connection without waiting for replies. Replies are drained by another thread, which only counts them
+ * and remembers first error. Final PING marks the end of the stream.
+ * 
+ * Both buffers are allocated once per loader, which is kept by RedisServer, so repeated loads do not allocate direct memory.
+ * Loads using same loader are serialized.
+ * 
+ * @author mvanek
+ */
+class BulkLoader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] PING = "*1\r\n$4\r\nPING\r\n".getBytes();
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final ByteBuffer replyBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public synchronized BulkLoadResult load(String host, int port, Iterator<Command> commands) throws IOException {
+        long start = System.currentTimeMillis();
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            buffer.clear();
+            RespWriter writer = new RespWriter(channel, buffer);
+            Drainer drainer = new Drainer(channel, replyBuffer);
+            drainer.start();
+            long sent = 0;
+            try {
+                while (commands.hasNext()) {
+                    writer.write(commands.next());
+                    ++sent;
+                }
+                drainer.total = sent + 1; // before PING, so drainer knows when to stop
+                writer.write(PING);
+                writer.flush();
+            } catch (IOException iox) {
+                drainer.interrupt(); // closes channel
+                try {
+                    drainer.join(); // reply buffer is reused by next load
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                }
+                throw iox;
+            }
+            try {
+                drainer.join();
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for replies");
+            }
+            if (drainer.failure != null) {
+                throw drainer.failure;
+            }
+            return new BulkLoadResult(sent, drainer.errors, drainer.firstError != null ? drainer.firstError.toString() : null,
+                    System.currentTimeMillis() - start);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Counts replies with incremental parser - bulk strings are skipped, arrays are tracked by remaining element counts
+     */
+    static class Drainer extends Thread {
+
+        private static final int TYPE = 0, LINE = 1, SKIP = 2;
+
+        private final SocketChannel channel;
+
+        private final ByteBuffer buffer;
+
+        volatile long total = -1;
+
+        long replies = 0;
+
+        long errors = 0;
+
+        StringBuilder firstError;
+
+        IOException failure;
+
+        private int state = TYPE;
+
+        private byte type;
+
+        private long number;
+
+        private boolean negative;
+
+        private long skip;
+
+        private long[] stack = new long[8];
+
+        private int depth = 0;
+
+        Drainer(SocketChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+            setName("redis-bulk-drainer");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (total == -1 || replies < total) {
+                    buffer.clear();
+                    if (channel.read(buffer) == -1) {
+                        throw new IOException("Connection closed after " + replies + " replies");
+                    }
+                    buffer.flip();
+                    parse();
+                }
+            } catch (IOException iox) {
+                failure = iox;
+            }
+        }
+
+        private void parse() {
+            while (buffer.hasRemaining()) {
+                switch (state) {
+                case TYPE:
+                    type = buffer.get();
+                    number = 0;
+                    negative = false;
+                    state = LINE;
+                    if (type == '-') {
+                        ++errors;
+                    }
+                    break;
+                case LINE:
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        line();
+                    } else if (b == '-') {
+                        negative = true;
+                    } else if (b >= '0' && b <= '9') {
+                        number = number * 10 + (b - '0');
+                    }
+                    if (type == '-' && errors == 1 && b != '\r' && b != '\n') {
+                        if (firstError == null) {
+                            firstError = new StringBuilder();
+                        }
+                        firstError.append((char) b);
+                    }
+                    break;
+                case SKIP:
+                    int chunk = (int) Math.min(skip, buffer.remaining());
+                    buffer.position(buffer.position() + chunk);
+                    skip -= chunk;
+                    if (skip == 0) {
+                        done();
+                    }
+                    break;
+                }
+            }
+        }
+
+        private void line() {
+            if (type == '$' && !negative) {
+                skip = number + 2;
+                state = SKIP;
+            } else if (type == '*' && !negative && number > 0) {
+                if (depth == stack.length) {
+                    long[] bigger = new long[depth * 2];
+                    System.arraycopy(stack, 0, bigger, 0, depth);
+                    stack = bigger;
+                }
+                stack[depth++] = number;
+                state = TYPE;
+            } else {
+                done();
+            }
+        }
+
+        private void done() {
+            state = TYPE;
+            while (depth > 0) {
+                if (--stack[depth - 1] > 0) {
+                    return; // more elements of array
+                }
+                --depth;
+            }
+            ++replies;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Redis command with arguments, for example new Command("SET", "key", "value")
+ * 
+ * Arguments are String or byte[]. Instance can be reused by set() to avoid allocation per command - fixed arity set methods
+ * write into argument array owned by this instance when it has the same length, so SET key value loop allocates nothing.
+ * 
+ * @author mvanek
+ */
+public class Command {
+
+    static final Charset UTF8 = Charset.forName("utf-8");
+
+    private Object[] arguments;
+
+    private boolean owned; // arguments array was allocated here, not given by caller
+
+    public Command(String... arguments) {
+        set((Object[]) arguments);
+    }
+
+    public Command(byte[]... arguments) {
+        set((Object[]) arguments);
+    }
+
+    /**
+     * Replace arguments - every one must be String or byte[]. Given array is used as it is, not copied
+     */
+    public Command set(Object... arguments) {
+        if (arguments == null || arguments.length == 0) {
+            throw new IllegalArgumentException("Empty command");
+        }
+        for (Object argument : arguments) {
+            check(argument);
+        }
+        this.arguments = arguments;
+        this.owned = false;
+        return this;
+    }
+
+    public Command set(Object argument0) {
+        check(argument0);
+        reuse(1)[0] = argument0;
+        return this;
+    }
+
+    public Command set(Object argument0, Object argument1) {
+        check(argument0);
+        check(argument1);
+        Object[] arguments = reuse(2);
+        arguments[0] = argument0;
+        arguments[1] = argument1;
+        return this;
+    }
+
+    public Command set(Object argument0, Object argument1, Object argument2) {
+        check(argument0);
+        check(argument1);
+        check(argument2);
+        Object[] arguments = reuse(3);
+        arguments[0] = argument0;
+        arguments[1] = argument1;
+        arguments[2] = argument2;
+        return this;
+    }
+
+    public Command set(Object argument0, Object argument1, Object argument2, Object argument3) {
+        check(argument0);
+        check(argument1);
+        check(argument2);
+        check(argument3);
+        Object[] arguments = reuse(4);
+        arguments[0] = argument0;
+        arguments[1] = argument1;
+        arguments[2] = argument2;
+        arguments[3] = argument3;
+        return this;
+    }
+
+    private Object[] reuse(int size) {
+        if (!owned || arguments.length != size) {
+            arguments = new Object[size];
+            owned = true;
+        }
+        return arguments;
+    }
+
+    private static void check(Object argument) {
+        if (!(argument instanceof String) && !(argument instanceof byte[])) {
+            throw new IllegalArgumentException("Argument must be String or byte[]: " + argument);
+        }
+    }
+
+    public int size() {
+        return arguments.length;
+    }
+
+    /**
+     * @return String or byte[]
+     */
+    public Object get(int index) {
+        return arguments[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Object argument : arguments) {
+            if (sb.length() != 0) {
+                sb.append(' ');
+            }
+            sb.append(argument instanceof byte[] ? new String((byte[]) argument, UTF8) : argument);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(arguments);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof Command && Arrays.deepEquals(arguments, ((Command) object).arguments);
+    }
+}
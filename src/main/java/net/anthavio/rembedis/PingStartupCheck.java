@@ -0,0 +1,139 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.anthavio.process.OsProcess;
+import net.anthavio.process.StartupCheck;
+
+/**
+ * Redis is started when it answers PING with PONG. Does not depend on log output, loglevel or log file configuration
+ * 
+ * Server loading dataset answers -LOADING error, so it is reported as started only after dataset is loaded. Any other error 
+ * (-NOAUTH of requirepass server) means that server is up. Server answering PONG must report process_id of started process, 
+ * so another server listening on the same port is not mistaken for ours.
+ * 
+ * Until server accepts connection, attempts are 1 ms apart, so accept is noticed within a millisecond. Connection refused 
+ * is answered by kernel in microseconds, so these attempts are cheap. Once server answers -LOADING, attempts back off 
+ * by half up to maxDelayMs, as loading takes much longer than that anyway. 
+ * 
+ * Connect and read timeout is only timeoutMs, because probe runs on shared scheduler thread. Slower answer is simply retried.
+ * Unix sockets are not supported (Java 6).
+ * 
+ * @author mvanek
+ */
+public class PingStartupCheck implements StartupCheck.Probe {
+
+    private final String host;
+
+    private final int port;
+
+    private final long maxDelayMs;
+
+    private final int timeoutMs;
+
+    private volatile int loading = 0; // consecutive -LOADING answers
+
+    public PingStartupCheck(String host, int port) {
+        this(host, port, 10, 5);
+    }
+
+    public PingStartupCheck(String host, int port, long maxDelayMs, int timeoutMs) {
+        this.host = host;
+        this.port = port;
+        this.maxDelayMs = maxDelayMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public long getDelay(int attempt) {
+        int loading = this.loading;
+        if (loading == 0) {
+            return 1;
+        }
+        double delay = Math.pow(1.5, loading);
+        return delay < maxDelayMs ? (long) delay : maxDelayMs;
+    }
+
+    @Override
+    public boolean probe(Process process) {
+        RedisClient client;
+        try {
+            client = new RedisClient(host, port, timeoutMs);
+        } catch (IOException iox) {
+            return false; // not listening yet
+        }
+        try {
+            try {
+                if (!client.ping()) {
+                    ++loading;
+                    return false;
+                }
+            } catch (RedisClient.RedisError error) {
+                return true; // -NOAUTH and such - server is up, but it cannot be asked who it is
+            }
+            return isStartedProcess(client, process);
+        } catch (IOException iox) {
+            return false;
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Another server might listen on the port while ours is failing with "Address already in use"
+     */
+    private static boolean isStartedProcess(RedisClient client, Process process) throws IOException {
+        long pid = OsProcess.getPid(process);
+        if (pid == -1) {
+            return true; // cannot tell
+        }
+        try {
+            String processId = client.info("server").get("process_id");
+            return processId == null || Long.parseLong(processId) == pid;
+        } catch (RedisClient.RedisError error) {
+            return true;
+        }
+    }
+
+    /**
+     * Output is not checked at all
+     */
+    @Override
+    public boolean isStarted(Process process, List<String> sysOutErr) {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "PingStartupCheck [" + host + ":" + port + "]";
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Random;
+
+/**
+ * Reserves ports across JVMs through lock files in registry directory (-Drembedis.ports.dir, 
+ * java.io.tmpdir/rembedis-ports by default). Port is reserved while Reservation holds FileLock on [port].lock file, 
+ * lock disappears with JVM, so crashed forks do not leak reservations.
+ * 
+ * Ports are taken from -Drembedis.ports.range (default 20000-32000, below Linux ephemeral ports). When fork number is known 
+ * (-Dsurefire.forkNumber or -Drembedis.forkNumber) every fork searches its own block of -Drembedis.ports.block 
+ * (default 500) ports first, so parallel forks do not even compete for lock files.
+ * 
+ * @author mvanek
+ */
+public class PortAllocator {
+
+    private static final File DIRECTORY = new File(System.getProperty("rembedis.ports.dir", new File(System.getProperty("java.io.tmpdir"),
+            "rembedis-ports").getPath()));
+
+    private static int rangeStart;
+
+    private static int rangeEnd;
+
+    private static final int BLOCK = Integer.getInteger("rembedis.ports.block", 500);
+
+    private static int cursor;
+
+    static {
+        String[] range = System.getProperty("rembedis.ports.range", "20000-32000").split("-");
+        setRange(Integer.parseInt(range[0].trim()), Integer.parseInt(range[1].trim()));
+        String fork = System.getProperty("rembedis.forkNumber", System.getProperty("surefire.forkNumber"));
+        int span = rangeEnd - rangeStart;
+        if (fork != null && fork.matches("\\d+")) {
+            cursor = ((Integer.parseInt(fork) - 1) * BLOCK % span + span) % span;
+        } else {
+            cursor = new Random().nextInt(span);
+        }
+    }
+
+    /**
+     * Replace -Drembedis.ports.range. Reservations already taken are not affected
+     * 
+     * @param end - exclusive
+     */
+    static synchronized void setRange(int start, int end) {
+        if (end <= start) {
+            throw new IllegalArgumentException("Invalid port range " + start + "-" + end);
+        }
+        rangeStart = start;
+        rangeEnd = end;
+        cursor = 0;
+    }
+
+    static synchronized int getRangeStart() {
+        return rangeStart;
+    }
+
+    static synchronized int getRangeEnd() {
+        return rangeEnd;
+    }
+
+    /**
+     * @return reserved port, which is free for binding now
+     * @throws IllegalStateException when whole range is taken
+     */
+    public static synchronized Reservation allocate() {
+        DIRECTORY.mkdirs();
+        int span = rangeEnd - rangeStart;
+        for (int i = 0; i < span; ++i) {
+            int port = rangeStart + cursor;
+            cursor = (cursor + 1) % span;
+            Reservation reservation = tryAllocate(port);
+            if (reservation != null) {
+                return reservation;
+            }
+        }
+        throw new IllegalStateException("No free port in range " + rangeStart + "-" + rangeEnd);
+    }
+
+    /**
+     * @return reservation of given port or null when it is reserved or bound by someone else
+     */
+    static Reservation tryAllocate(int port) {
+        DIRECTORY.mkdirs();
+        Reservation reservation = reserve(port);
+        if (reservation != null && !isBindable(port)) {
+            reservation.release(); // used by something outside of registry
+            return null;
+        }
+        return reservation;
+    }
+
+    private static Reservation reserve(int port) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(DIRECTORY, port + ".lock"), "rw");
+            FileLock lock = file.getChannel().tryLock();
+            if (lock != null) {
+                return new Reservation(port, file, lock);
+            }
+        } catch (IOException iox) {
+            //taken or not accessible
+        } catch (OverlappingFileLockException oflx) {
+            //taken by this JVM
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException iox) {
+                //ignore
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBindable(int port) {
+        try {
+            ServerSocket server = new ServerSocket();
+            try {
+                server.setReuseAddress(true);
+                server.bind(new InetSocketAddress(port));
+                return true;
+            } finally {
+                server.close();
+            }
+        } catch (IOException iox) {
+            return false;
+        }
+    }
+
+    /**
+     * Port held for this JVM until released
+     */
+    public static class Reservation {
+
+        private final int port;
+
+        private final RandomAccessFile file;
+
+        private final FileLock lock;
+
+        Reservation(int port, RandomAccessFile file, FileLock lock) {
+            this.port = port;
+            this.file = file;
+            this.lock = lock;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void release() {
+            try {
+                lock.release();
+                file.close();
+            } catch (IOException iox) {
+                //ignore
+            }
+        }
+    }
+}
@@ -35,8 +35,13 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
 
+import net.anthavio.process.Platform;
+import net.anthavio.process.Platform.DetectedPlatform;
 import net.anthavio.process.StartupException;
+import net.anthavio.process.StartupFuture;
 
 /**
  * 
@@ -47,6 +52,8 @@ public class RedisBuilder {
 
     private static String NEW_LINE = System.getProperty("line.separator");
 
+    private static final Logger logger = Logger.getLogger(RedisBuilder.class.getName());
+
     private File redisBinary;
 
     private File configFile;
@@ -63,8 +70,21 @@ public class RedisBuilder {
 
     private OutputStream sysOutStream;
 
+    private double autoTuneFraction;
+
+    private boolean pingCheck = Boolean.getBoolean("rembedis.pingCheck");
+
+    private boolean shutdownSave;
+
+    private File snapshotFile;
+
+    private String snapshotResource;
+
+    /**
+     * When not set, executable is resolved by RedisExecutables - System property, PATH lookup, embedded binary
+     */
     public RedisBuilder executable(File redisBinary) {
-        if (redisBinary.exists() == false || redisBinary.canExecute()) {
+        if (redisBinary.exists() == false || redisBinary.canExecute() == false) {
             throw new IllegalStateException("Redis binary does not exist or is not executable " + redisBinary);
         }
         this.redisBinary = redisBinary;
@@ -107,6 +127,70 @@ public class RedisBuilder {
         return this;
     }
 
+    /**
+     * Convenience method using quarter of available memory
+     */
+    public RedisBuilder autoTune() {
+        return autoTune(0.25);
+    }
+
+    /**
+     * Size server by host hardware - maxmemory is set to memoryFraction of currently available memory,
+     * unless configured by line. Warns when host settings (transparent huge pages, overcommit) 
+     * make BGSAVE fork slow or failing.
+     */
+    public RedisBuilder autoTune(double memoryFraction) {
+        if (memoryFraction <= 0 || memoryFraction > 1) {
+            throw new IllegalArgumentException("Memory fraction must be in (0, 1>: " + memoryFraction);
+        }
+        this.autoTuneFraction = memoryFraction;
+        return this;
+    }
+
+    /**
+     * Detect startup by answered PING instead of "ready to accept connections" log message. 
+     * Independent on loglevel, logfile or log format. Also waits for dataset to be loaded.
+     */
+    public RedisBuilder pingCheck(boolean pingCheck) {
+        this.pingCheck = pingCheck;
+        return this;
+    }
+
+    /**
+     * Stop server with SHUTDOWN SAVE. By default SHUTDOWN NOSAVE is used to skip final save of the dataset.
+     */
+    public RedisBuilder shutdownSave(boolean shutdownSave) {
+        this.shutdownSave = shutdownSave;
+        return this;
+    }
+
+    /**
+     * Start with dataset loaded from RDB snapshot. File is hard linked (or copied when linking is not possible) 
+     * into temporary directory of every server run, so original is never modified - Redis saves into temporary file and renames it.
+     * Directory is deleted when server stops, so every start begins with snapshot dataset again.
+     * Startup is detected by PING, which is refused until dataset is loaded. Use timeout long enough for snapshot size.
+     */
+    public RedisBuilder fromSnapshot(File rdb) {
+        if (rdb.isFile() == false) {
+            throw new IllegalArgumentException("Snapshot file does not exist: " + rdb);
+        }
+        this.snapshotFile = rdb;
+        this.snapshotResource = null;
+        return this;
+    }
+
+    /**
+     * Start with dataset loaded from RDB snapshot classpath resource. Resource is copied into temporary directory of every server run.
+     */
+    public RedisBuilder fromSnapshotResource(String resource) {
+        if (RedisSnapshot.getClassLoader().getResource(resource) == null) {
+            throw new IllegalArgumentException("Snapshot resource does not exist: " + resource);
+        }
+        this.snapshotResource = resource;
+        this.snapshotFile = null;
+        return this;
+    }
+
     /**
      * Use System.out to see redis output in console or any other stream
      */
@@ -115,6 +199,10 @@ public class RedisBuilder {
         return this;
     }
 
+    boolean isPortFixed() {
+        return port != null;
+    }
+
     public RedisServer build() {
         ArrayList<String> line = new ArrayList<String>();
         if (configBuilder != null) {
@@ -144,10 +232,19 @@ public class RedisBuilder {
             line.add("--loglevel");
             line.add(loglevel);
         }
+        if (autoTuneFraction != 0) {
+            autoTune(line);
+        }
+        boolean pingCheck = this.pingCheck;
+        RedisSnapshot snapshot = null;
+        if (snapshotFile != null || snapshotResource != null) {
+            snapshot = new RedisSnapshot(snapshotFile, snapshotResource);
+            pingCheck = true; // ready message does not mean loaded in all versions
+        }
         if (redisBinary == null) {
-            redisBinary = RedisServer.unpack();
+            redisBinary = RedisExecutables.resolve();
         }
-        return new RedisServer(redisBinary, line, sysOutStream);
+        return new RedisServer(redisBinary, line, sysOutStream, pingCheck, shutdownSave, snapshot);
     }
 
     public RedisServer start() {
@@ -160,6 +257,34 @@ public class RedisBuilder {
         return redis;
     }
 
+    public StartupFuture<RedisServer> startAsync() {
+        return startAsync(2000);
+    }
+
+    /**
+     * Build and start without waiting for server to be ready
+     */
+    public StartupFuture<RedisServer> startAsync(int timeoutMs) {
+        return build().startAsync(timeoutMs);
+    }
+
+    private void autoTune(List<String> line) {
+        DetectedPlatform platform = Platform.detect();
+        long available = platform.getAvailableMemory();
+        boolean configured = configBuilder != null && configBuilder.indexOf("maxmemory ") != -1;
+        if (available > 0 && !configured) {
+            line.add("--maxmemory");
+            line.add(String.valueOf((long) (available * autoTuneFraction)));
+        }
+        if ("always".equals(platform.getTransparentHugePages())) {
+            logger.warning("Transparent huge pages are enabled (always). Redis BGSAVE and BGREWRITEAOF fork will suffer latency spikes. "
+                    + "Consider: echo madvise > /sys/kernel/mm/transparent_hugepage/enabled");
+        }
+        if (platform.getOvercommitMemory() == 2) {
+            logger.warning("vm.overcommit_memory is 2 (never). Redis BGSAVE fork may fail under memory pressure. Consider: sysctl vm.overcommit_memory=1");
+        }
+    }
+
     private void write(StringBuilder configBuilder, File configFile) throws IOException {
         FileOutputStream stream = new FileOutputStream(configFile);
         try {
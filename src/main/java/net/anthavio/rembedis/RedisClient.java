@@ -0,0 +1,350 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small dependency free RESP client for server administration - health checks, INFO, resets, CONFIG, SHUTDOWN.
+ * 
+ * Replies are parsed in place from one reusable read buffer. Numbers and common status replies (OK, PONG, QUEUED) 
+ * do not allocate, bulk strings are decoded directly from buffer. Reply types are String (status and bulk), Long (integer), 
+ * List (array) or null. Error reply is thrown as RedisError, or returned as RedisError value from pipeline.
+ * 
+ * Instance holds one persistent connection and is not thread safe on its own - RedisServer.getClient() 
+ * synchronizes calls on client instance.
+ * 
+ * @author mvanek
+ */
+public class RedisClient implements Closeable {
+
+    private static final String[] STATUS = { "OK", "PONG", "QUEUED" };
+
+    private final Socket socket;
+
+    private final InputStream input;
+
+    private final RespWriter writer;
+
+    private byte[] buffer = new byte[8192];
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    public RedisClient(String host, int port) throws IOException {
+        this(host, port, 2000);
+    }
+
+    public RedisClient(String host, int port, int timeoutMs) throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMs);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            input = socket.getInputStream();
+            writer = new RespWriter(Channels.newChannel(socket.getOutputStream()), ByteBuffer.allocate(8192));
+        } catch (IOException iox) {
+            socket.close();
+            throw iox;
+        }
+    }
+
+    /**
+     * @throws RedisError on error reply
+     */
+    public synchronized Object call(String... command) throws IOException {
+        return call(new Command(command));
+    }
+
+    /**
+     * @throws RedisError on error reply
+     */
+    public synchronized Object call(Command command) throws IOException {
+        Object reply;
+        try {
+            writer.write(command);
+            writer.flush();
+            reply = read();
+        } catch (IOException iox) {
+            close(); // unknown state of connection
+            throw iox;
+        }
+        if (reply instanceof RedisError) {
+            throw (RedisError) reply;
+        }
+        return reply;
+    }
+
+    /**
+     * Send all commands at once and then read all replies
+     * 
+     * @return replies in order of commands, error replies are RedisError instances
+     */
+    public synchronized List<Object> pipeline(List<Command> commands) throws IOException {
+        List<Object> replies = new ArrayList<Object>(commands.size());
+        try {
+            for (Command command : commands) {
+                writer.write(command);
+            }
+            writer.flush();
+            for (int i = 0; i < commands.size(); ++i) {
+                replies.add(read());
+            }
+        } catch (IOException iox) {
+            close(); // unknown state of connection
+            throw iox;
+        }
+        return replies;
+    }
+
+    /**
+     * @return true when server answers PONG (false when it is loading dataset)
+     * @throws RedisError on other error reply (-NOAUTH)
+     */
+    public boolean ping() throws IOException {
+        try {
+            return "PONG".equals(call("PING"));
+        } catch (RedisError error) {
+            if (error.isLoading()) {
+                return false;
+            }
+            throw error;
+        }
+    }
+
+    /**
+     * @return INFO fields of section (all sections when null)
+     */
+    public Map<String, String> info(String section) throws IOException {
+        String info = (String) (section != null ? call("INFO", section) : call("INFO"));
+        Map<String, String> fields = new HashMap<String, String>();
+        for (String line : info.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon != -1 && !line.startsWith("#")) {
+                fields.put(line.substring(0, colon), line.substring(colon + 1));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return CONFIG GET pattern as map
+     */
+    public Map<String, String> configGet(String pattern) throws IOException {
+        List<?> pairs = (List<?>) call("CONFIG", "GET", pattern);
+        Map<String, String> config = new HashMap<String, String>();
+        for (int i = 0; i + 1 < pairs.size(); i += 2) {
+            config.put((String) pairs.get(i), (String) pairs.get(i + 1));
+        }
+        return config;
+    }
+
+    /**
+     * Not a liveness check - connection closed by server (timeout, CLIENT KILL, QUIT) is noticed only by next call, 
+     * which fails with IOException and closes this client
+     * 
+     * @return false after close or failed call
+     */
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException iox) {
+            //ignore
+        }
+    }
+
+    private Object read() throws IOException {
+        byte type = next();
+        switch (type) {
+        case '+':
+            return readStatus();
+        case '-':
+            return new RedisError(readStatus());
+        case ':':
+            return readNumber();
+        case '$':
+            int length = (int) readNumber();
+            if (length < 0) {
+                return null;
+            }
+            require(length + 2);
+            String bulk = new String(buffer, position, length, Command.UTF8);
+            position += length + 2;
+            return bulk;
+        case '*':
+            int count = (int) readNumber();
+            if (count < 0) {
+                return null;
+            }
+            List<Object> list = new ArrayList<Object>(count);
+            for (int i = 0; i < count; ++i) {
+                list.add(read());
+            }
+            return list;
+        default:
+            throw new IOException("Unexpected reply type " + (char) type);
+        }
+    }
+
+    private String readStatus() throws IOException {
+        int end = findLineEnd();
+        int length = end - position;
+        String status = null;
+        for (String known : STATUS) {
+            if (matches(known, length)) {
+                status = known;
+                break;
+            }
+        }
+        if (status == null) {
+            status = new String(buffer, position, length, Command.UTF8);
+        }
+        position = end + 2;
+        return status;
+    }
+
+    private boolean matches(String known, int length) {
+        if (known.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (buffer[position + i] != known.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long readNumber() throws IOException {
+        int end = findLineEnd();
+        boolean negative = buffer[position] == '-';
+        long number = 0;
+        for (int i = negative ? position + 1 : position; i < end; ++i) {
+            number = number * 10 + (buffer[i] - '0');
+        }
+        position = end + 2;
+        return negative ? -number : number;
+    }
+
+    /**
+     * @return index of \r, whole line including \n is in buffer
+     */
+    private int findLineEnd() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (; scanned + 1 < limit; ++scanned) {
+                if (buffer[scanned] == '\r' && buffer[scanned + 1] == '\n') {
+                    return scanned;
+                }
+            }
+            int offset = position;
+            fill();
+            scanned -= offset - position; // buffer might be compacted
+        }
+    }
+
+    private byte next() throws IOException {
+        if (position == limit) {
+            position = limit = 0;
+            fill();
+        }
+        return buffer[position++];
+    }
+
+    private void require(int bytes) throws IOException {
+        while (limit - position < bytes) {
+            fill(bytes);
+        }
+    }
+
+    private void fill() throws IOException {
+        fill(limit - position + 1);
+    }
+
+    /**
+     * Compact or grow buffer to hold at least needed unread bytes and read more
+     */
+    private void fill(int needed) throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (needed > buffer.length) {
+            byte[] bigger = new byte[Math.max(needed, buffer.length * 2)];
+            System.arraycopy(buffer, 0, bigger, 0, limit);
+            buffer = bigger;
+        } else if (limit == buffer.length) {
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, bigger, 0, limit);
+            buffer = bigger;
+        }
+        int read = input.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            close();
+            throw new IOException("Connection closed by server");
+        }
+        limit += read;
+    }
+
+    /**
+     * Error reply of server
+     */
+    public static class RedisError extends IllegalStateException {
+
+        private static final long serialVersionUID = 1L;
+
+        public RedisError(String message) {
+            super(message);
+        }
+
+        /**
+         * @return true for -LOADING reply of server loading dataset
+         */
+        public boolean isLoading() {
+            return getMessage().startsWith("LOADING");
+        }
+    }
+}
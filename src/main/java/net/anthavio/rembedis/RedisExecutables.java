@@ -0,0 +1,185 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves redis-server executable in order
+ * 
+ * 1. explicitly given file
+ * 2. System property rembedis.executable
+ * 3. redis-server found on PATH, reporting same version as RedisServer.REDIS_VERSION (disable with -Drembedis.searchPath=false)
+ * 4. embedded binary unpacked from classpath
+ * 
+ * @author mvanek
+ */
+public class RedisExecutables {
+
+    public static final String EXECUTABLE_PROPERTY = "rembedis.executable";
+
+    public static final String SEARCH_PATH_PROPERTY = "rembedis.searchPath";
+
+    private static final Pattern VERSION = Pattern.compile("v=(\\S+)");
+
+    private static final String UNKNOWN = "";
+
+    /**
+     * absolute path -> version reported by --version (UNKNOWN when probe failed)
+     */
+    private static final ConcurrentMap<String, String> versions = new ConcurrentHashMap<String, String>();
+
+    /**
+     * version|PATH -> search result, including not found
+     */
+    private static final ConcurrentMap<String, Found> searches = new ConcurrentHashMap<String, Found>();
+
+    public static File resolve() {
+        return resolve(null);
+    }
+
+    public static File resolve(File explicit) {
+        return resolve(explicit, System.getenv("PATH"));
+    }
+
+    static File resolve(File explicit, String path) {
+        if (explicit != null) {
+            return checkExecutable(explicit);
+        }
+        String property = System.getProperty(EXECUTABLE_PROPERTY);
+        if (property != null && property.length() != 0) {
+            return checkExecutable(new File(property));
+        }
+        if (!"false".equalsIgnoreCase(System.getProperty(SEARCH_PATH_PROPERTY))) {
+            File found = searchPath(RedisServer.REDIS_VERSION, path);
+            if (found != null) {
+                return found;
+            }
+        }
+        return RedisServer.unpack();
+    }
+
+    /**
+     * PATH is scanned only once per version, negative result is remembered too
+     * 
+     * @return first redis-server on PATH reporting required version or null
+     */
+    public static File searchPath(String version) {
+        return searchPath(version, System.getenv("PATH"));
+    }
+
+    static File searchPath(String version, String path) {
+        if (path == null) {
+            return null;
+        }
+        String key = version + '|' + path;
+        Found found = searches.get(key);
+        if (found == null || (found.file != null && !found.file.isFile())) {
+            found = new Found(scan(version, path));
+            searches.put(key, found);
+        }
+        return found.file;
+    }
+
+    private static File scan(String version, String path) {
+        String[] names = File.separatorChar == '\\' ? new String[] { "redis-server.exe" } : new String[] { "redis-server" };
+        for (String directory : path.split(File.pathSeparator)) {
+            if (directory.length() == 0) {
+                continue;
+            }
+            for (String name : names) {
+                File candidate = new File(directory, name);
+                if (candidate.isFile() && candidate.canExecute() && version.equals(getVersion(candidate))) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Executes binary with --version, result is cached per path
+     * 
+     * @return version like 2.8.9 or null when binary does not tell
+     */
+    public static String getVersion(File binary) {
+        String key = binary.getAbsolutePath();
+        String version = versions.get(key);
+        if (version == null) {
+            version = probeVersion(binary);
+            versions.put(key, version);
+        }
+        return UNKNOWN.equals(version) ? null : version;
+    }
+
+    private static String probeVersion(File binary) {
+        try {
+            Process process = new ProcessBuilder(binary.getAbsolutePath(), "--version").redirectErrorStream(true).start();
+            try {
+                process.getOutputStream().close();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                String line = reader.readLine(); // Redis server v=2.8.9 sha=00000000:0 malloc=jemalloc-3.6.0 bits=64 build=...
+                if (line != null && line.startsWith("Redis server")) {
+                    Matcher matcher = VERSION.matcher(line);
+                    if (matcher.find()) {
+                        return matcher.group(1);
+                    }
+                }
+            } finally {
+                process.destroy();
+            }
+        } catch (IOException iox) {
+            //not runnable - not usable
+        }
+        return UNKNOWN;
+    }
+
+    private static File checkExecutable(File binary) {
+        if (!binary.isFile() || !binary.canExecute()) {
+            throw new IllegalStateException("Redis binary does not exist or is not executable " + binary);
+        }
+        return binary;
+    }
+
+    private static class Found {
+
+        private final File file;
+
+        Found(File file) {
+            this.file = file;
+        }
+    }
+}
@@ -32,15 +32,24 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 import net.anthavio.embed.Unpacker;
 import net.anthavio.process.Bit;
 import net.anthavio.process.Os;
 import net.anthavio.process.OsProcess;
+import net.anthavio.process.ProcessStats;
+import net.anthavio.process.Shutdown;
+import net.anthavio.process.ShutdownCoordinator;
+import net.anthavio.process.StartupCheck;
+import net.anthavio.process.StartupException;
+import net.anthavio.process.StartupFuture;
 import net.anthavio.process.StartupCheck.SysoutRegexCheck;
 
 /**
@@ -59,27 +68,65 @@ public class RedisServer implements Closeable {
 
     public static final String REDIS_VERSION = "2.8.9";
 
+    // no cache budget - every release embeds single redis build, so version named directory never collides
+    /**
+     * Only binaries shipped in src/main/resources are declared. Elsewhere use redis-server from PATH or -Drembedis.executable
+     */
     private static final Unpacker UNPACKER = Unpacker.Builder().//
             setName("redis").setVersion(REDIS_VERSION).//
             addBinary(Os.WINDOWS, Bit.B64, "windows/redis-server.exe").//
-            addBinary(Os.MACOS, Bit.B64, "macosx/redis-server").//
-            addBinary(Os.LINUX, Bit.B32, "linux86/redis-server").//
-            addBinary(Os.LINUX, Bit.B64, "linux64/redis-server").build();
+            addBinary(Os.MACOS, Bit.B64, "macosx/redis-server").build();
 
+    /**
+     * Unpack redis-server only
+     */
     public static File unpack() {
         return UNPACKER.unpack();
     }
 
-    private final int port;
+    /**
+     * Unpack every tool of the bundle shipped for this platform (redis-server for now) in one pass
+     * 
+     * @return binary name (without .exe) -> unpacked file
+     */
+    public static Map<String, File> unpackAll() {
+        return UNPACKER.unpackAll();
+    }
+
+    private static final int PORT_RETRIES = 3;
+
+    private volatile int port;
+
+    private final boolean dynamicPort;
+
+    private PortAllocator.Reservation reservation;
 
     private final List<String> command;
 
     private OsProcess process;
 
+    private RedisClient client;
+
+    private BulkLoader bulkLoader;
+
     private OutputStream sysOutStream;
 
+    private final boolean pingCheck;
+
+    private final boolean shutdownSave;
+
+    private volatile RedisShutdown shutdown;
+
+    private final RedisSnapshot snapshot;
+
+    private File snapshotDump;
+
+    private Runnable snapshotCleanup; // deletes snapshotDump on JVM exit
+
+    private final List<OsProcess.ExitListener> exitListeners = new CopyOnWriteArrayList<OsProcess.ExitListener>();
+
     public RedisServer() {
-        this(getDynamicPort());
+        this(new ArrayList<String>());
     }
 
     public RedisServer(int port) {
@@ -87,7 +134,7 @@ public class RedisServer implements Closeable {
     }
 
     public RedisServer(List<String> params) {
-        this(UNPACKER.unpack(), params);
+        this(RedisExecutables.resolve(), params);
     }
 
     public RedisServer(File executable, List<String> params) {
@@ -95,6 +142,28 @@ public class RedisServer implements Closeable {
     }
 
     public RedisServer(File executable, List<String> params, OutputStream sysOutStream) {
+        this(executable, params, sysOutStream, Boolean.getBoolean("rembedis.pingCheck"));
+    }
+
+    /**
+     * @param pingCheck - detect startup by PING command instead of log message 
+     */
+    public RedisServer(File executable, List<String> params, OutputStream sysOutStream, boolean pingCheck) {
+        this(executable, params, sysOutStream, pingCheck, false);
+    }
+
+    /**
+     * @param pingCheck - detect startup by PING command instead of log message 
+     * @param shutdownSave - stop with SHUTDOWN SAVE instead of SHUTDOWN NOSAVE
+     */
+    public RedisServer(File executable, List<String> params, OutputStream sysOutStream, boolean pingCheck, boolean shutdownSave) {
+        this(executable, params, sysOutStream, pingCheck, shutdownSave, null);
+    }
+
+    /**
+     * @param snapshot - dataset copied into temporary --dir for every run, nullable
+     */
+    RedisServer(File executable, List<String> params, OutputStream sysOutStream, boolean pingCheck, boolean shutdownSave, RedisSnapshot snapshot) {
         if (executable.exists() == false) {
             throw new IllegalArgumentException("Redis executable does not exist: " + executable);
         }
@@ -104,14 +173,19 @@ public class RedisServer implements Closeable {
         if (portIdx != -1) {
             //some checks maybe...
             port = Integer.parseInt(command.get(portIdx + 1));
+            dynamicPort = false;
         } else {
-            port = getDynamicPort();
+            dynamicPort = true; // reserved lazily by getPort() or start(), so unused server does not hold any
+            port = 0;
             command.add("--port");
             command.add(String.valueOf(port));
         }
 
         this.sysOutStream = sysOutStream; //nullable
-
+        this.pingCheck = pingCheck;
+        this.shutdownSave = shutdownSave;
+        this.snapshot = snapshot;
+        this.shutdown = new RedisShutdown(getHost(), port, shutdownSave, shutdownSave ? 60000 : 1000, 1000);
     }
 
     /**
@@ -126,23 +200,307 @@ public class RedisServer implements Closeable {
      * Start Redis
      */
     public void start(int timeoutMs) {
+        StartupFuture<RedisServer> future = startAsync(timeoutMs);
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof StartupException) {
+                throw (StartupException) ex.getCause();
+            }
+            throw new StartupException("Failed to start Redis. Port " + port, ex.getCause());
+        } catch (InterruptedException ix) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new StartupException("Interrupted while starting Redis. Port " + port, ix);
+        }
+    }
+
+    /**
+     * Start Redis without waiting for it. Useful to start many servers concurrently and then join them
+     * 
+     * @return future completed when server is ready to accept connections or failed with StartupException
+     */
+    public StartupFuture<RedisServer> startAsync(int timeoutMs) {
         if (isRunning()) {
             throw new IllegalStateException("Redis already running. Port " + port);
         }
-        process = OsProcess.Builder().setCommand(command).setRedirectStdErrToStdOut(true).setStdOutStream(sysOutStream)
-                .setStartupCheck(new SysoutRegexCheck("The server is now ready to accept connections")).build();
-        process.start(timeoutMs);
+        final StartupFuture<RedisServer> future = new StartupFuture<RedisServer>();
+        try {
+            if (dynamicPortLost()) {
+                reallocatePort();
+            }
+        } catch (IllegalStateException isx) {
+            future.fail(new StartupException("Cannot allocate port for Redis", isx));
+            return future;
+        }
+        if (snapshot != null) {
+            try {
+                prepareSnapshot();
+            } catch (IOException iox) {
+                future.fail(new StartupException("Cannot prepare redis snapshot", iox));
+                return future;
+            }
+            future.addListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (future.getFailure() != null) {
+                        deleteSnapshot();
+                    }
+                }
+            });
+        }
+        if (dynamicPort) {
+            future.addListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (future.getFailure() != null) {
+                        releasePort();
+                    }
+                }
+            });
+        }
+        attempt(future, timeoutMs, PORT_RETRIES);
+        return future;
+    }
+
+    private synchronized void prepareSnapshot() throws IOException {
+        if (snapshotDump == null) {
+            final File dump = snapshot.prepare();
+            snapshotDump = dump;
+            snapshotCleanup = new Runnable() {
+
+                @Override
+                public void run() {
+                    RedisSnapshot.delete(dump);
+                }
+            };
+            ShutdownCoordinator.addCleanup(snapshotCleanup);
+        }
+        setArgument("--dir", snapshotDump.getParentFile().getAbsolutePath());
+        setArgument("--dbfilename", snapshotDump.getName());
+    }
+
+    private synchronized void deleteSnapshot() {
+        if (snapshotDump != null) {
+            ShutdownCoordinator.removeCleanup(snapshotCleanup);
+            RedisSnapshot.delete(snapshotDump);
+            snapshotDump = null;
+            snapshotCleanup = null;
+        }
+    }
+
+    private void setArgument(String name, String value) {
+        int index = command.indexOf(name);
+        if (index != -1) {
+            command.set(index + 1, value);
+        } else {
+            command.add(name);
+            command.add(value);
+        }
+    }
+
+    /**
+     * Dynamic port is taken by another process after failed start. Retry immediately with new one, instead of waiting for timeout
+     */
+    private void attempt(final StartupFuture<RedisServer> future, final int timeoutMs, final int retries) {
+        final OsProcess process = buildProcess();
+        this.process = process;
+        final StartupFuture<OsProcess> started = process.startAsync(timeoutMs);
+        started.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                Throwable failure = started.getFailure();
+                if (failure == null) {
+                    future.complete(RedisServer.this);
+                } else if (retries > 0 && reservation != null && isAddressInUse(failure) && !future.isDone()) {
+                    try {
+                        reallocatePort();
+                        attempt(future, timeoutMs, retries - 1);
+                    } catch (RuntimeException rx) {
+                        releasePort();
+                        future.fail(new StartupException("Cannot retry Redis start on new port", rx));
+                    }
+                } else {
+                    future.fail(failure);
+                }
+            }
+        });
+        future.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    started.cancel(true);
+                }
+            }
+        });
+    }
+
+    private static boolean isAddressInUse(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("Address already in use")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reservation is released on stop and failed start - take it back or find new port
+     */
+    private synchronized boolean dynamicPortLost() {
+        if (reservation == null && dynamicPort) {
+            if (port != 0) {
+                reservation = PortAllocator.tryAllocate(port);
+            }
+            return reservation == null;
+        }
+        return false;
+    }
+
+    private synchronized void releasePort() {
+        if (reservation != null) {
+            reservation.release();
+            reservation = null;
+        }
+    }
+
+    private synchronized void reallocatePort() {
+        releasePort();
+        reservation = PortAllocator.allocate();
+        port = reservation.getPort();
+        command.set(command.indexOf("--port") + 1, String.valueOf(port));
+        shutdown = new RedisShutdown(getHost(), port, shutdownSave, shutdownSave ? 60000 : 1000, 1000);
+    }
+
+    private OsProcess buildProcess() {
+        StartupCheck check;
+        if (pingCheck) {
+            check = new PingStartupCheck(getHost(), port);
+        } else {
+            check = new SysoutRegexCheck("The server is now ready to accept connections");
+        }
+        OsProcess process = OsProcess.Builder().setCommand(command).setRedirectStdErrToStdOut(true).setStdOutStream(sysOutStream)
+                .setStartupCheck(check).setShutdown(shutdown).build();
+        for (OsProcess.ExitListener listener : exitListeners) {
+            process.onExit(listener);
+        }
+        return process;
+    }
+
+    /**
+     * Stream commands over one pipelined connection, like redis-cli --pipe. Replies are only counted, errors do not stop loading.
+     * 
+     * @throws IllegalStateException when server is not running or connection fails
+     */
+    public BulkLoadResult bulkLoad(Iterator<Command> commands) {
+        if (!isRunning()) {
+            throw new IllegalStateException("Redis not running. Port " + port);
+        }
+        try {
+            return getBulkLoader().load(getHost(), port, commands);
+        } catch (IOException iox) {
+            throw new IllegalStateException("Bulk load failed. Port " + port, iox);
+        }
+    }
+
+    private synchronized BulkLoader getBulkLoader() {
+        if (bulkLoader == null) {
+            bulkLoader = new BulkLoader();
+        }
+        return bulkLoader;
+    }
+
+    /**
+     * @return resource usage snapshot (CPU, memory, threads, context switches, open files) or null when not running or not on Linux
+     */
+    public ProcessStats sample() {
+        OsProcess process = this.process;
+        return process != null ? process.sample() : null;
+    }
+
+    /**
+     * Sample running server every periodMs milliseconds until it is stopped or exits
+     */
+    public void addSampleListener(OsProcess.SampleListener listener, long periodMs) {
+        OsProcess process = this.process;
+        if (process == null) {
+            throw new IllegalStateException("Redis not running. Port " + port);
+        }
+        process.addSampleListener(listener, periodMs);
+    }
+
+    /**
+     * Listener is called once for every server run when it exits - crashed, killed or stopped
+     */
+    public void onExit(OsProcess.ExitListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener");
+        }
+        exitListeners.add(listener);
+        OsProcess process = this.process;
+        if (process != null) {
+            process.onExit(listener);
+        }
+    }
+
+    /**
+     * First --bind address or localhost
+     */
+    String getHost() {
+        int bindIdx = command.indexOf("--bind");
+        if (bindIdx != -1 && bindIdx + 1 < command.size()) {
+            String bind = command.get(bindIdx + 1).trim().split("\\s+")[0];
+            if (!bind.equals("0.0.0.0")) {
+                return bind;
+            }
+        }
+        return "127.0.0.1";
+    }
+
+    /**
+     * Connection closed by server is detected only by failing call, which closes the client. Next getClient() then reconnects,
+     * so caller can retry idempotent command once with new client
+     * 
+     * @return persistent connection to running server, reconnected when closed
+     */
+    public synchronized RedisClient getClient() throws IOException {
+        if (!isRunning()) {
+            throw new IllegalStateException("Redis not running. Port " + port);
+        }
+        if (client == null || !client.isOpen()) {
+            client = new RedisClient(getHost(), port);
+        }
+        return client;
     }
 
     public int stop() {
+        synchronized (this) {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+        }
         int exitValue = Integer.MIN_VALUE;
         if (process != null) {
             exitValue = process.stop();
             process = null;
         }
+        releasePort();
+        deleteSnapshot();
         return exitValue;
     }
 
+    /**
+     * @return how was server stopped last time and how long it took or null when it was not stopped yet
+     */
+    public Shutdown.Result getLastShutdown() {
+        return shutdown.getLastResult();
+    }
+
     public boolean isRunning() {
         if (process != null) {
             return process.isRunning();
@@ -157,20 +515,19 @@ public class RedisServer implements Closeable {
 
     /**
      * Useful when port is dynamicaly allocated or inside config file
+     * Dynamic port is reserved by first call, so clients can be configured before start
+     * 
+     * @throws IllegalStateException when no free port is left
      */
     public int getPort() {
-        return port;
-    }
-
-    private static int getDynamicPort() {
-        try {
-            ServerSocket server = new ServerSocket(0);
-            int port = server.getLocalPort();
-            server.close();
-            return port;
-        } catch (IOException iox) {
-            throw new IllegalStateException(iox);
+        if (dynamicPort && port == 0) {
+            synchronized (this) {
+                if (port == 0) {
+                    reallocatePort();
+                }
+            }
         }
+        return port;
     }
 
 }
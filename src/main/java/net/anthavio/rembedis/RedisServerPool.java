@@ -0,0 +1,391 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.anthavio.process.StartupFuture;
+
+/**
+ * Keeps size servers started in background, so lease does not wait for server startup.
+ * 
+ * Returned server is reset (in one pipelined round trip) by FLUSHALL, SCRIPT FLUSH, CONFIG RESETSTAT and by setting back CONFIG values
+ * changed since it was started. Server is replaced by new one only when reset fails.
+ * 
+ * Servers are built from template builder, which must not set fixed port.
+ * 
+ * @author mvanek
+ */
+public class RedisServerPool implements Closeable {
+
+    private static final int MAX_SPAWN_FAILURES = 3;
+
+    private final RedisBuilder template;
+
+    private final int startTimeoutMs;
+
+    private final LinkedBlockingQueue<Entry> ready = new LinkedBlockingQueue<Entry>();
+
+    private final Map<RedisServer, Entry> leased = new ConcurrentHashMap<RedisServer, Entry>();
+
+    private final Map<RedisServer, StartupFuture<RedisServer>> starting = new ConcurrentHashMap<RedisServer, StartupFuture<RedisServer>>();
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger spawnFailures = new AtomicInteger();
+
+    private volatile Throwable lastFailure;
+
+    private volatile boolean closed = false;
+
+    private final AtomicLong leases = new AtomicLong();
+
+    private final AtomicLong waits = new AtomicLong();
+
+    private final AtomicLong recycles = new AtomicLong();
+
+    private final AtomicLong restarts = new AtomicLong();
+
+    private final AtomicLong recycleNanos = new AtomicLong();
+
+    private final AtomicLong recycleMaxNanos = new AtomicLong();
+
+    public RedisServerPool(RedisBuilder template, int size) {
+        this(template, size, 2000);
+    }
+
+    public RedisServerPool(RedisBuilder template, int size, int startTimeoutMs) {
+        if (template == null) {
+            throw new IllegalArgumentException("Null template");
+        }
+        if (template.isPortFixed()) {
+            throw new IllegalArgumentException("Template must not set fixed port");
+        }
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be positive: " + size);
+        }
+        this.template = template;
+        this.startTimeoutMs = startTimeoutMs;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "redis-pool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < size; ++i) {
+            spawn();
+        }
+    }
+
+    /**
+     * Convenience method waiting 10 seconds at most
+     */
+    public RedisServer lease() {
+        return lease(10000);
+    }
+
+    /**
+     * @throws IllegalStateException when no server becomes ready in time
+     */
+    public RedisServer lease(long timeoutMs) {
+        if (closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+        Entry entry = ready.poll();
+        if (entry == null) {
+            waits.incrementAndGet();
+            try {
+                entry = ready.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+            }
+            if (entry == null) {
+                throw new IllegalStateException("No server ready in " + timeoutMs + " ms", lastFailure);
+            }
+        }
+        leases.incrementAndGet();
+        leased.put(entry.server, entry);
+        return entry.server;
+    }
+
+    /**
+     * Server is reset in background and made available for next lease
+     */
+    public void release(RedisServer server) {
+        final Entry entry = leased.remove(server);
+        if (entry == null) {
+            throw new IllegalArgumentException("Server is not leased from this pool: " + server.getPort());
+        }
+        if (!closed) {
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        recycle(entry);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException rex) {
+                //closed meanwhile
+            }
+        }
+        entry.stop();
+    }
+
+    private void spawn() {
+        if (closed) {
+            return;
+        }
+        final RedisServer server;
+        synchronized (template) {
+            server = template.build();
+        }
+        StartupFuture<RedisServer> future = server.startAsync(startTimeoutMs);
+        starting.put(server, future);
+        future.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                starting.remove(server);
+                if (!closed) {
+                    try {
+                        executor.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                prepare(server);
+                            }
+                        });
+                        return;
+                    } catch (RejectedExecutionException rex) {
+                        //closed meanwhile
+                    }
+                }
+                server.stop();
+            }
+        });
+    }
+
+    private void prepare(RedisServer server) {
+        Entry entry = new Entry(server);
+        try {
+            if (!server.isRunning()) {
+                throw new IllegalStateException("Redis failed to start. Port " + server.getPort());
+            }
+            entry.config = configGet(server);
+        } catch (Exception x) {
+            lastFailure = x;
+            entry.stop();
+            if (spawnFailures.incrementAndGet() <= MAX_SPAWN_FAILURES) {
+                spawn();
+            }
+            return;
+        }
+        spawnFailures.set(0);
+        if (closed) {
+            entry.stop();
+        } else {
+            ready.add(entry);
+        }
+    }
+
+    private void recycle(Entry entry) {
+        long start = System.nanoTime();
+        try {
+            List<Command> reset = new ArrayList<Command>();
+            reset.add(new Command("FLUSHALL"));
+            reset.add(new Command("SCRIPT", "FLUSH"));
+            reset.add(new Command("CONFIG", "RESETSTAT"));
+            reset.add(new Command("CONFIG", "GET", "*"));
+            List<Object> replies = pipeline(entry.server, reset);
+            RedisClient client = entry.server.getClient();
+            for (Object reply : replies) {
+                if (reply instanceof RedisClient.RedisError) {
+                    throw (RedisClient.RedisError) reply;
+                }
+            }
+            List<?> current = (List<?>) replies.get(3);
+            Map<String, String> changed = new HashMap<String, String>(entry.config);
+            for (int i = 0; i + 1 < current.size(); i += 2) {
+                if (String.valueOf(current.get(i + 1)).equals(changed.get(current.get(i)))) {
+                    changed.remove(current.get(i));
+                }
+            }
+            for (Map.Entry<String, String> original : changed.entrySet()) {
+                client.call("CONFIG", "SET", original.getKey(), original.getValue());
+            }
+        } catch (Exception x) {
+            lastFailure = x;
+            restarts.incrementAndGet();
+            entry.stop();
+            spawn();
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        recycles.incrementAndGet();
+        recycleNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = recycleMaxNanos.get()) && !recycleMaxNanos.compareAndSet(max, nanos)) {
+            //retry
+        }
+        if (closed) {
+            entry.stop();
+        } else {
+            ready.add(entry);
+        }
+    }
+
+    /**
+     * Reset commands are idempotent, so they are sent once more over new connection when kept one was closed by server 
+     * (timeout, CLIENT KILL or QUIT of leasing test) instead of restarting healthy server
+     */
+    private static List<Object> pipeline(RedisServer server, List<Command> commands) throws IOException {
+        try {
+            return server.getClient().pipeline(commands);
+        } catch (IOException iox) {
+            return server.getClient().pipeline(commands); // failed client closed itself, so this is new connection
+        }
+    }
+
+    private static Map<String, String> configGet(RedisServer server) throws IOException {
+        try {
+            return server.getClient().configGet("*");
+        } catch (IOException iox) {
+            return server.getClient().configGet("*");
+        }
+    }
+
+    /**
+     * Stop all servers, including leased ones and those still starting
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(startTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<RedisServer, StartupFuture<RedisServer>> spawned : starting.entrySet()) {
+            try {
+                spawned.getValue().get(startTimeoutMs, TimeUnit.MILLISECONDS); // listener stops it
+            } catch (Exception x) {
+                //failed or timed out
+            }
+            spawned.getKey().stop();
+        }
+        Entry entry;
+        while ((entry = ready.poll()) != null) {
+            entry.stop();
+        }
+        for (Entry leasedEntry : leased.values()) {
+            leasedEntry.stop();
+        }
+        leased.clear();
+    }
+
+    /**
+     * @return number of servers ready to be leased now
+     */
+    public int getReadyCount() {
+        return ready.size();
+    }
+
+    public long getLeases() {
+        return leases.get();
+    }
+
+    /**
+     * @return number of leases which had to wait for server
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    public long getRecycles() {
+        return recycles.get();
+    }
+
+    /**
+     * @return number of servers replaced because reset failed
+     */
+    public long getRestarts() {
+        return restarts.get();
+    }
+
+    public double getRecycleMillisAverage() {
+        long count = recycles.get();
+        return count != 0 ? recycleNanos.get() / 1000000d / count : 0;
+    }
+
+    public double getRecycleMillisMax() {
+        return recycleMaxNanos.get() / 1000000d;
+    }
+
+    @Override
+    public String toString() {
+        return "RedisServerPool [ready=" + ready.size() + ", leased=" + leased.size() + ", leases=" + leases + ", waits=" + waits + ", recycles="
+                + recycles + ", restarts=" + restarts + ", recycleAvg=" + getRecycleMillisAverage() + "ms, recycleMax=" + getRecycleMillisMax()
+                + "ms]";
+    }
+
+    static class Entry {
+
+        private final RedisServer server;
+
+        private Map<String, String> config;
+
+        Entry(RedisServer server) {
+            this.server = server;
+        }
+
+        void stop() {
+            server.stop();
+        }
+    }
+}
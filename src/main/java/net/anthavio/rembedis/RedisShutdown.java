@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.IOException;
+
+import net.anthavio.process.Shutdown.EscalatingShutdown;
+
+/**
+ * Sends SHUTDOWN NOSAVE (or SAVE) command, so Redis with persistence enabled does not start final save 
+ * unless asked to. Escalates to SIGTERM and forcible kill when server does not exit in time.
+ * 
+ * Last path taken and time spent is available from getLastResult()
+ * 
+ * @author mvanek
+ */
+public class RedisShutdown extends EscalatingShutdown {
+
+    private final String host;
+
+    private final int port;
+
+    private final boolean save;
+
+    /**
+     * SHUTDOWN NOSAVE with 1 second for each step
+     */
+    public RedisShutdown(String host, int port) {
+        this(host, port, false, 1000, 1000);
+    }
+
+    public RedisShutdown(String host, int port, boolean save, long gracefulMs, long terminateMs) {
+        super(gracefulMs, terminateMs);
+        this.host = host;
+        this.port = port;
+        this.save = save;
+    }
+
+    /**
+     * Server closes connection when shutting down, error is returned when it refuses (failed SAVE)
+     */
+    @Override
+    protected boolean request(Process process, long timeoutMs) {
+        RedisClient client;
+        try {
+            client = new RedisClient(host, port, (int) timeoutMs);
+        } catch (IOException iox) {
+            return false; // not listening
+        }
+        try {
+            client.call("SHUTDOWN", save ? "SAVE" : "NOSAVE");
+            return false; // no reply is expected
+        } catch (RedisClient.RedisError error) {
+            return false; // refused - failed SAVE
+        } catch (IOException iox) {
+            return true; // connection closed by exiting server or still saving
+        } finally {
+            client.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RedisShutdown [" + host + ":" + port + (save ? " SAVE" : " NOSAVE") + "]";
+    }
+}
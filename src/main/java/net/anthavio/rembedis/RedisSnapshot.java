@@ -0,0 +1,146 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * RDB snapshot file or classpath resource placed into temporary working directory of single server run
+ * 
+ * @author mvanek
+ */
+class RedisSnapshot {
+
+    private final File file;
+
+    private final String resource;
+
+    RedisSnapshot(File file, String resource) {
+        if ((file == null) == (resource == null)) {
+            throw new IllegalArgumentException("Exactly one of file and resource must be set");
+        }
+        this.file = file;
+        this.resource = resource;
+    }
+
+    /**
+     * File is hard linked (or copied when linking is not possible), resource is copied. 
+     * Caller deletes it, File.deleteOnExit is not used, because it would grow with every run
+     * 
+     * @return dump.rdb in new temporary directory
+     */
+    File prepare() throws IOException {
+        File directory = File.createTempFile("redis-", ".dir");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File dump = new File(directory, "dump.rdb");
+        try {
+            if (file != null) {
+                if (!link(file, dump)) {
+                    copy(new FileInputStream(file), dump);
+                }
+            } else {
+                InputStream stream = getClassLoader().getResourceAsStream(resource);
+                if (stream == null) {
+                    throw new IOException("Resource not found " + resource);
+                }
+                copy(stream, dump);
+            }
+        } catch (IOException iox) {
+            delete(dump);
+            throw iox;
+        }
+        return dump;
+    }
+
+    /**
+     * Delete dump together with everything redis wrote next to it (temp-*.rdb, appendonly.aof) and the directory
+     */
+    static void delete(File dump) {
+        File directory = dump.getParentFile();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * java.nio.file.Files.createLink when running on Java 7+
+     */
+    private static boolean link(File existing, File link) {
+        try {
+            Method toPath = File.class.getMethod("toPath");
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Method createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+            createLink.invoke(null, toPath.invoke(link), toPath.invoke(existing));
+            return true;
+        } catch (Exception x) {
+            return false; // Java 6, different file system, not supported...
+        }
+    }
+
+    private static void copy(InputStream stream, File file) throws IOException {
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                FileChannel channel = output.getChannel();
+                ReadableByteChannel input = Channels.newChannel(stream);
+                long position = 0;
+                long transferred;
+                while ((transferred = channel.transferFrom(input, position, 1024 * 1024)) > 0) {
+                    position += transferred;
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    static ClassLoader getClassLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = RedisSnapshot.class.getClassLoader();
+        }
+        return classLoader;
+    }
+}
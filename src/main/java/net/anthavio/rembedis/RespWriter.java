@@ -0,0 +1,144 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes commands as RESP arrays of bulk strings into reusable buffer. ASCII strings and lengths 
+ * are written without intermediate String or byte[] allocation. Buffer is written out when full or on flush().
+ * 
+ * @author mvanek
+ */
+class RespWriter {
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer buffer;
+
+    RespWriter(WritableByteChannel channel, ByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    public void write(Command command) throws IOException {
+        int size = command.size();
+        ensure(16);
+        buffer.put((byte) '*');
+        putNumber(size);
+        for (int i = 0; i < size; ++i) {
+            Object argument = command.get(i);
+            if (argument instanceof String) {
+                String string = (String) argument;
+                if (isAscii(string)) {
+                    int length = string.length();
+                    ensure(16);
+                    buffer.put((byte) '$');
+                    putNumber(length);
+                    for (int c = 0; c < length; ++c) {
+                        if (!buffer.hasRemaining()) {
+                            flush();
+                        }
+                        buffer.put((byte) string.charAt(c));
+                    }
+                    ensure(2);
+                    buffer.put((byte) '\r').put((byte) '\n');
+                    continue;
+                }
+                argument = string.getBytes(Command.UTF8);
+            }
+            byte[] bytes = (byte[]) argument;
+            ensure(16);
+            buffer.put((byte) '$');
+            putNumber(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+            ensure(2);
+            buffer.put((byte) '\r').put((byte) '\n');
+        }
+    }
+
+    /**
+     * Raw bytes, already RESP encoded
+     */
+    public void write(byte[] bytes) throws IOException {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static boolean isAscii(String string) {
+        for (int i = 0, length = string.length(); i < length; ++i) {
+            if (string.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes number followed by CRLF
+     */
+    private void putNumber(int number) {
+        if (number == 0) {
+            buffer.put((byte) '0');
+        } else {
+            int divisor = 1;
+            while (number / divisor >= 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                buffer.put((byte) ('0' + (number / divisor) % 10));
+            }
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.anthavio.process.Bit;
+import net.anthavio.process.Os;
+
+/**
+ * Compares former available() driven copy loop with Unpacker for cold (target deleted) and warm (target verified) unpack
+ * 
+ * Plain main method as JMH requires newer Java than we build for
+ * 
+ * @author mvanek
+ */
+public class UnpackerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String resource = args.length > 0 ? args[0] : "windows/redis-server.exe";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        File destination = new File("target/unpacker-benchmark");
+
+        Unpacker unpacker = Unpacker.Builder().setName("benchmark").addBinary(Os.UNSET, Bit.UNSET, resource)
+                .setDestination(destination.getPath()).build();
+        File target = unpacker.unpack();
+        File legacyTarget = new File(target.getParentFile(), "legacy-" + target.getName());
+
+        for (int round = 0; round < 2; ++round) { // first round is JIT warmup
+            long legacy = 0, cold = 0, warm = 0;
+            for (int i = 0; i < iterations; ++i) {
+                legacyTarget.delete();
+                long start = System.nanoTime();
+                legacyCopy(resource, legacyTarget);
+                legacy += System.nanoTime() - start;
+
+                target.delete();
+                start = System.nanoTime();
+                unpacker.unpack();
+                cold += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                unpacker.unpack();
+                warm += System.nanoTime() - start;
+            }
+            if (round == 1) {
+                System.out.println("legacy loop " + micros(legacy, iterations) + " us/op, " + legacyTarget.length() + " bytes");
+                System.out.println("cold unpack " + micros(cold, iterations) + " us/op, " + target.length() + " bytes");
+                System.out.println("warm unpack " + micros(warm, iterations) + " us/op");
+            }
+        }
+    }
+
+    private static long micros(long nanos, int iterations) {
+        return nanos / iterations / 1000;
+    }
+
+    /**
+     * Copy loop as it was before channel based Unpacker
+     */
+    private static void legacyCopy(String resource, File target) throws IOException {
+        InputStream stream = UnpackerBenchmark.class.getClassLoader().getResourceAsStream(resource);
+        BufferedInputStream input = new BufferedInputStream(stream);
+        BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(target));
+        try {
+            while (input.available() > 0) {
+                byte[] buffer = new byte[input.available()];
+                input.read(buffer);
+                output.write(buffer);
+            }
+            output.flush();
+        } finally {
+            output.close();
+            input.close();
+        }
+        target.setExecutable(true);
+    }
+}
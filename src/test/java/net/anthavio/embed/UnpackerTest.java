@@ -0,0 +1,202 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.embed;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.anthavio.process.Bit;
+import net.anthavio.process.Os;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * 
+ * @author mvanek
+ *
+ */
+public class UnpackerTest {
+
+    private static final File RESOURCES = new File("src/main/resources");
+
+    /**
+     * Manifests are committed next to binaries, so replaced binary without regenerated manifest must fail the build
+     */
+    @Test
+    public void testChecksumManifestsMatchResources() throws IOException {
+        int manifests = 0;
+        for (File manifest : manifests(RESOURCES)) {
+            String name = manifest.getName().substring(0, manifest.getName().length() - Checksum.SUFFIX.length());
+            File resource = new File(manifest.getParentFile(), name);
+            String path = RESOURCES.toURI().relativize(resource.toURI()).getPath();
+            Assertions.assertThat(resource).isFile();
+            Assertions.assertThat(Checksum.manifest(getClass().getClassLoader(), path)).isEqualTo(sha256(resource));
+            ++manifests;
+        }
+        Assertions.assertThat(manifests).isGreaterThan(0);
+    }
+
+    @Test
+    public void testCompressedResourceIsDecompressed() throws IOException {
+        String resource = "compressed/hello.txt.gz";
+        File destination = new File("target/unpacker-test/" + System.nanoTime());
+        Unpacker unpacker = Unpacker.Builder().setName("compressed").addBinary(Os.UNSET, Bit.UNSET, resource)
+                .setDestination(destination.getPath()).build();
+        //When
+        File unpacked = unpacker.unpack();
+        //Then
+        Assertions.assertThat(unpacked.getName()).isEqualTo("hello.txt");
+        Assertions.assertThat(Checksum.of(unpacked)).isEqualTo(Checksum.manifest(getClass().getClassLoader(), resource));
+        Assertions.assertThat(Checksum.stamped(unpacked)).isEqualTo(Checksum.of(unpacked));
+    }
+
+    @Test
+    public void testUnpackAllBundle() throws IOException {
+        File destination = new File("target/unpacker-test/" + System.nanoTime());
+        Unpacker unpacker = Unpacker.Builder().setName("bundle").addBinary("redis-server", Os.UNSET, Bit.UNSET, "macosx/redis-server")
+                .addBinary("hello", Os.UNSET, Bit.UNSET, "compressed/hello.txt.gz").setDestination(destination.getPath()).build();
+        //When
+        Map<String, File> unpacked = unpacker.unpackAll();
+        //Then - every tool of the bundle in one directory
+        Assertions.assertThat(unpacked.keySet()).containsExactly("redis-server", "hello");
+        for (File file : unpacked.values()) {
+            Assertions.assertThat(file.getParentFile()).isEqualTo(new File(destination, "bundle"));
+            Assertions.assertThat(Checksum.stamped(file)).isEqualTo(Checksum.of(file));
+        }
+        //When - again
+        Map<String, File> registered = unpacker.unpackAll();
+        //Then - same files from registry
+        Assertions.assertThat(registered).isEqualTo(unpacked);
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsed() throws IOException {
+        BinaryCache cache = new BinaryCache(new File("target/unpacker-test/" + System.nanoTime()), 250, -1);
+        long now = System.currentTimeMillis();
+        File[] entries = new File[3];
+        DirectoryLock lock = cache.lock();
+        try {
+            for (int i = 0; i < entries.length; ++i) {
+                entries[i] = cache.entry(String.format("%064x", i));
+                FileOutputStream output = new FileOutputStream(new File(entries[i], "binary"));
+                output.write(new byte[100]);
+                output.close();
+                cache.touch(entries[i]);
+                new File(entries[i], BinaryCache.ACCESS_FILE).setLastModified(now - (entries.length - i) * 1000);
+            }
+        } finally {
+            lock.release();
+        }
+        //When - 300 bytes over 250 budget
+        int evicted = cache.evict(entries[2]);
+        //Then - least recently accessed is gone
+        Assertions.assertThat(evicted).isEqualTo(1);
+        Assertions.assertThat(entries[0].exists()).isFalse();
+        Assertions.assertThat(entries[1].exists()).isTrue();
+        Assertions.assertThat(entries[2].exists()).isTrue();
+    }
+
+    @Test
+    public void testCacheConcurrentUnpackAndEviction() throws Exception {
+        final String destination = "target/unpacker-test/" + System.nanoTime();
+        String[] resources = { "compressed/hello.txt.gz", "macosx/redis-server" };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; ++t) {
+                final String resource = resources[t % resources.length];
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        // zero size budget - every unpack evicts entry of the other binary
+                        Unpacker unpacker = Unpacker.Builder().setName("concurrent").addBinary(Os.UNSET, Bit.UNSET, resource)
+                                .setDestination(destination).setCacheBudget(0, -1).build();
+                        for (int i = 0; i < 50; ++i) {
+                            UnpackRegistry.clear(); // go for cache every time
+                            unpacker.unpack();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            //Then - no "Failed to lock directory" or checksum failure from half evicted entry
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<File> manifests(File directory) {
+        List<File> manifests = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    manifests.addAll(manifests(file));
+                } else if (file.getName().endsWith(Checksum.SUFFIX)) {
+                    manifests.add(file);
+                }
+            }
+        }
+        return manifests;
+    }
+
+    /**
+     * @return hash of decompressed content, same as Unpacker computes
+     */
+    static String sha256(File resource) throws IOException {
+        MessageDigest digest = Checksum.newDigest();
+        InputStream input = Compression.detect(resource.getName()).decompress(new FileInputStream(resource));
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return Checksum.hex(digest.digest());
+    }
+}
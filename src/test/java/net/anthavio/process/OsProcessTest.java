@@ -0,0 +1,201 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.process;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * 
+ * @author mvanek
+ *
+ */
+public class OsProcessTest {
+
+    @Test
+    public void testStopDoesNotHangWhenShutdownFails() {
+        OsProcess process = OsProcess.Builder("sh", "-c", "echo started; exec sleep 30").setShutdown(new Shutdown() {
+
+            @Override
+            public void shutdown(Process process) {
+                // gives up without ending process
+            }
+        }).build();
+        process.start(2000);
+        Process running = process.getProcess();
+        try {
+            long started = System.currentTimeMillis();
+            //When
+            int exitValue = process.stop();
+            //Then - bounded wait, failure reported instead of blocking on waitFor
+            Assertions.assertThat(exitValue).isEqualTo(Integer.MIN_VALUE);
+            Assertions.assertThat(System.currentTimeMillis() - started).isLessThan(5000);
+            Assertions.assertThat(OsProcess.isAlive(running)).isTrue();
+        } finally {
+            running.destroy();
+        }
+    }
+
+    @Test
+    public void testOutputPumpDrainsManyProcessesWithOneThread() throws Exception {
+        OutputPump pump = new OutputPump(1);
+        List<OsProcess> processes = new ArrayList<OsProcess>();
+        List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>();
+        for (int i = 0; i < 20; ++i) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            OsProcess process = OsProcess.Builder("sh", "-c", "echo started; seq 1 1000; echo end-" + i).setOutputPump(pump)
+                    .setStdOutStream(output).setStartupCheck(new StartupCheck.SysoutRegexCheck("started")).build();
+            process.start(2000);
+            processes.add(process);
+            outputs.add(output);
+        }
+        for (OsProcess process : processes) {
+            process.getProcess().waitFor();
+        }
+        //Then - output of exited processes is complete, including tail
+        for (int i = 0; i < outputs.size(); ++i) {
+            String output = awaitOutput(outputs.get(i), "end-" + i + "\n");
+            Assertions.assertThat(output).startsWith("started\n1\n");
+            Assertions.assertThat(output).contains("\n1000\nend-" + i + "\n");
+            processes.get(i).stop();
+        }
+        Assertions.assertThat(pump.getThreadCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testShutdownAllStopsRegisteredProcesses() throws Exception {
+        List<Process> running = new ArrayList<Process>();
+        for (int i = 0; i < 3; ++i) {
+            OsProcess process = OsProcess.Builder("sh", "-c", "echo started; exec sleep 30").build();
+            process.start(2000);
+            running.add(process.getProcess());
+        }
+        Assertions.assertThat(ShutdownCoordinator.getLiveCount()).isGreaterThanOrEqualTo(3);
+        //When
+        int remaining = ShutdownCoordinator.shutdownAll(5000);
+        //Then
+        Assertions.assertThat(remaining).isZero();
+        for (Process process : running) {
+            Assertions.assertThat(OsProcess.isAlive(process)).isFalse();
+        }
+    }
+
+    @Test
+    public void testShutdownHookStopsProcesses() throws Exception {
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        Process jvm = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), HookChild.class.getName()).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(jvm.getInputStream()));
+        String pid = reader.readLine();
+        reader.close();
+        //When - child JVM exits without stopping its process
+        Assertions.assertThat(jvm.waitFor()).isZero();
+        //Then
+        Assertions.assertThat(pid).isNotNull();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (isAlive(pid) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertThat(isAlive(pid)).isFalse();
+    }
+
+    /**
+     * Starts process and exits leaving it to ShutdownCoordinator hook
+     */
+    public static class HookChild {
+
+        public static void main(String[] args) {
+            OsProcess process = OsProcess.Builder("sh", "-c", "echo started; exec sleep 30").build();
+            process.start(2000);
+            System.out.println(process.getPid());
+            System.exit(0);
+        }
+    }
+
+    @Test
+    public void testOnExitFiresOnceWithExitValue() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger exitValue = new AtomicInteger(-1);
+        OsProcess process = OsProcess.Builder("sh", "-c", "echo started; sleep 0.2; exit 7").build();
+        process.onExit(new OsProcess.ExitListener() {
+
+            @Override
+            public void onExit(OsProcess process, int value) {
+                exitValue.set(value);
+                calls.incrementAndGet();
+            }
+        });
+        process.start(2000);
+        //When
+        process.getProcess().waitFor();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (calls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        //Then
+        Assertions.assertThat(calls.get()).isEqualTo(1);
+        Assertions.assertThat(exitValue.get()).isEqualTo(7);
+
+        //When - registered after exit
+        final AtomicInteger lateExitValue = new AtomicInteger(-1);
+        process.onExit(new OsProcess.ExitListener() {
+
+            @Override
+            public void onExit(OsProcess process, int value) {
+                lateExitValue.set(value);
+            }
+        });
+        //Then - called immediately
+        Assertions.assertThat(lateExitValue.get()).isEqualTo(7);
+
+        process.stop();
+        Thread.sleep(200);
+        Assertions.assertThat(calls.get()).isEqualTo(1);
+    }
+
+    private static String awaitOutput(ByteArrayOutputStream output, String tail) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!output.toString().endsWith(tail) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return output.toString();
+    }
+
+    private static boolean isAlive(String pid) throws IOException, InterruptedException {
+        return new ProcessBuilder("kill", "-0", pid).start().waitFor() == 0;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * 
+ * @author mvanek
+ *
+ */
+public class RedisExecutablesTest {
+
+    @Test
+    public void testPropertyOverridesPath() throws IOException {
+        File directory = directory();
+        File onPath = fakeRedis(directory, "redis-server", RedisServer.REDIS_VERSION);
+        File custom = fakeRedis(directory, "custom-redis", "0.0.1");
+        String previous = System.getProperty(RedisExecutables.EXECUTABLE_PROPERTY);
+        System.setProperty(RedisExecutables.EXECUTABLE_PROPERTY, custom.getPath());
+        try {
+            //When
+            File resolved = RedisExecutables.resolve(null, directory.getPath());
+            //Then - property wins even over PATH binary of required version
+            Assertions.assertThat(resolved).isEqualTo(custom);
+        } finally {
+            restore(previous);
+        }
+        //Then - without property, PATH binary of required version
+        Assertions.assertThat(RedisExecutables.searchPath(RedisServer.REDIS_VERSION, directory.getPath())).isEqualTo(onPath);
+    }
+
+    @Test
+    public void testNonExecutableRejected() throws IOException {
+        File binary = fakeRedis(directory(), "redis-server", RedisServer.REDIS_VERSION);
+        binary.setExecutable(false);
+        String previous = System.getProperty(RedisExecutables.EXECUTABLE_PROPERTY);
+        System.setProperty(RedisExecutables.EXECUTABLE_PROPERTY, binary.getPath());
+        try {
+            RedisExecutables.resolve();
+            Assertions.failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException isx) {
+            Assertions.assertThat(isx.getMessage()).isEqualTo("Redis binary does not exist or is not executable " + binary);
+        } finally {
+            restore(previous);
+        }
+
+        try {
+            RedisServer.Builder().executable(binary);
+            Assertions.failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException isx) {
+            Assertions.assertThat(isx.getMessage()).isEqualTo("Redis binary does not exist or is not executable " + binary);
+        }
+    }
+
+    @Test
+    public void testEmbeddedFallbackWhenPathVersionDiffers() throws IOException {
+        File directory = directory();
+        fakeRedis(directory, "redis-server", "0.0.1");
+        String previous = System.getProperty(RedisExecutables.EXECUTABLE_PROPERTY);
+        System.clearProperty(RedisExecutables.EXECUTABLE_PROPERTY);
+        try {
+            //Then - PATH binary of other version is skipped
+            Assertions.assertThat(RedisExecutables.searchPath(RedisServer.REDIS_VERSION, directory.getPath())).isNull();
+            //When
+            File resolved = RedisExecutables.resolve(null, directory.getPath());
+            //Then - embedded binary
+            Assertions.assertThat(resolved).isEqualTo(RedisServer.unpack());
+        } catch (IllegalArgumentException iax) {
+            // no embedded binary for this platform, but unpacking was attempted
+            Assertions.assertThat(iax.getMessage()).contains("not found for platform");
+        } finally {
+            restore(previous);
+        }
+    }
+
+    private static File directory() {
+        File directory = new File("target/executables-test/" + System.nanoTime());
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * Shell script answering --version like redis-server does
+     */
+    private static File fakeRedis(File directory, String name, String version) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(("#!/bin/sh\necho \"Redis server v=" + version + " sha=00000000:0 malloc=libc bits=64\"\n").getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        file.setExecutable(true);
+        return file;
+    }
+
+    private static void restore(String previous) {
+        if (previous != null) {
+            System.setProperty(RedisExecutables.EXECUTABLE_PROPERTY, previous);
+        } else {
+            System.clearProperty(RedisExecutables.EXECUTABLE_PROPERTY);
+        }
+    }
+}
@@ -30,14 +30,28 @@ package net.anthavio.rembedis;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
 
+import net.anthavio.embed.UnpackRegistry;
 import net.anthavio.embed.Unpacker;
 import net.anthavio.process.Bit;
 import net.anthavio.process.Os;
+import net.anthavio.process.PidRegistry;
+import net.anthavio.process.ProcessStats;
+import net.anthavio.process.Shutdown;
+import net.anthavio.process.ShutdownCoordinator;
+import net.anthavio.process.StartupException;
+import net.anthavio.process.StartupFuture;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
@@ -101,6 +115,64 @@ public class RembedisTest {
         Assertions.assertThat(redis.isRunning()).isFalse();
     }
 
+    @Test
+    public void testDynamicPortTakenBeforeRestart() throws IOException {
+        RedisServer redis = new RedisServer();
+        int port = redis.getPort(); // reserved before start
+        redis.start();
+        Assertions.assertThat(redis.getPort()).isEqualTo(port);
+        redis.stop();
+        //When - someone outside of PortAllocator binds released port
+        ServerSocket socket = new ServerSocket(port);
+        try {
+            redis.start();
+            //Then
+            Assertions.assertThat(redis.getPort()).isNotEqualTo(port);
+            testJedisOperations(redis.getPort());
+        } finally {
+            redis.stop();
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testDynamicPortRangeExhausted() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int start = PortAllocator.getRangeStart();
+        int end = PortAllocator.getRangeEnd();
+        PortAllocator.setRange(socket.getLocalPort(), socket.getLocalPort() + 1);
+        try {
+            RedisServer redis = new RedisServer();
+            long started = System.currentTimeMillis();
+            try {
+                redis.start(2000);
+                Assertions.failBecauseExceptionWasNotThrown(StartupException.class);
+            } catch (StartupException sx) {
+                Assertions.assertThat(sx.getCause()).isInstanceOf(IllegalStateException.class);
+            }
+            //Then - fails fast instead of hanging
+            Assertions.assertThat(System.currentTimeMillis() - started).isLessThan(2000);
+        } finally {
+            PortAllocator.setRange(start, end);
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testDynamicPortReleasedOnFailedStart() throws IOException {
+        RedisServer redis = new RedisServer(Arrays.asList("--dir", "/non/existing/directory"));
+        try {
+            redis.start();
+            Assertions.failBecauseExceptionWasNotThrown(StartupException.class);
+        } catch (StartupException sx) {
+            //expected
+        }
+        //Then - reservation is not leaked
+        PortAllocator.Reservation reservation = PortAllocator.tryAllocate(redis.getPort());
+        Assertions.assertThat(reservation).isNotNull();
+        reservation.release();
+    }
+
     @Test
     public void testBuilderMasterSlave() throws Exception {
         ServerSocket socket = new ServerSocket(0);
@@ -116,6 +188,223 @@ public class RembedisTest {
         Assertions.assertThat(value).isEqualTo("1");
     }
 
+    @Test
+    public void testStartAsync() throws Exception {
+        List<StartupFuture<RedisServer>> futures = new ArrayList<StartupFuture<RedisServer>>();
+        for (int i = 0; i < 3; ++i) {
+            futures.add(RedisServer.Builder().startAsync());
+        }
+        for (StartupFuture<RedisServer> future : futures) {
+            RedisServer redis = future.get();
+            Assertions.assertThat(redis.isRunning()).isTrue();
+            testJedisOperations(redis.getPort());
+            redis.close();
+        }
+    }
+
+    @Test
+    public void testPingCheck() throws Exception {
+        RedisServer redis = RedisServer.Builder().pingCheck(true).configLine("loglevel warning").start();
+        Assertions.assertThat(redis.isRunning()).isTrue();
+        testJedisOperations(redis.getPort());
+        redis.close();
+    }
+
+    @Test
+    public void testPingCheckPortTaken() throws Exception {
+        RedisServer first = RedisServer.Builder().start();
+        try {
+            //When - first server answers PING on the port
+            RedisServer.Builder().port(first.getPort()).pingCheck(true).start();
+            Assertions.failBecauseExceptionWasNotThrown(StartupException.class);
+        } catch (StartupException sx) {
+            //Then - second server failing to bind is not reported as started
+            Assertions.assertThat(sx.getMessage()).contains("Address already in use");
+        } finally {
+            first.stop();
+        }
+    }
+
+    @Test
+    public void testPingCheckRequirePass() throws Exception {
+        //When - PING is answered with -NOAUTH
+        RedisServer redis = RedisServer.Builder().pingCheck(true).configLine("requirepass secret").start();
+        //Then
+        Assertions.assertThat(redis.isRunning()).isTrue();
+        redis.stop();
+    }
+
+    @Test
+    public void testGracefulShutdown() throws Exception {
+        RedisServer redis = RedisServer.Builder().start();
+        redis.stop();
+        Assertions.assertThat(redis.getLastShutdown().getPath()).isEqualTo(Shutdown.Path.GRACEFUL);
+    }
+
+    @Test
+    public void testServerPool() throws Exception {
+        RedisServerPool pool = new RedisServerPool(RedisServer.Builder(), 1);
+        try {
+            RedisServer redis = pool.lease();
+            testJedisOperations(redis.getPort());
+            pool.release(redis);
+
+            redis = pool.lease(); // recycled
+            Assertions.assertThat(readJedis(redis.getPort(), "abc")).isNull();
+            pool.release(redis);
+            Assertions.assertThat(pool.getLeases()).isEqualTo(2);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testServerPoolReconnectsClosedConnection() throws Exception {
+        RedisServerPool pool = new RedisServerPool(RedisServer.Builder(), 1);
+        try {
+            RedisServer redis = pool.lease();
+            redis.getClient().call("QUIT"); // server closes kept connection
+            pool.release(redis);
+            //When
+            RedisServer recycled = pool.lease();
+            //Then - reset went through new connection, server was not replaced
+            Assertions.assertThat(recycled).isSameAs(redis);
+            Assertions.assertThat(pool.getRestarts()).isEqualTo(0);
+            pool.release(recycled);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testServerPoolClosedWhileSpawning() throws Exception {
+        int live = ShutdownCoordinator.getLiveCount();
+        RedisServerPool pool = new RedisServerPool(RedisServer.Builder(), 3);
+        //When - servers are still starting
+        pool.close();
+        //Then - none of them is left running
+        Assertions.assertThat(ShutdownCoordinator.getLiveCount()).isEqualTo(live);
+        Assertions.assertThat(pool.getReadyCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFromSnapshot() throws Exception {
+        File seedDir = File.createTempFile("redis-seed", ".dir");
+        seedDir.delete();
+        seedDir.mkdir();
+        RedisServer seed = RedisServer.Builder().configLine("dir " + seedDir.getAbsolutePath()).start();
+        seed.getClient().call("SET", "abc", "seeded");
+        seed.getClient().call("SAVE");
+        seed.stop();
+        File rdb = new File(seedDir, "dump.rdb");
+        //When
+        RedisServer redis = RedisServer.Builder().fromSnapshot(rdb).start();
+        File workDir;
+        try {
+            //Then
+            Assertions.assertThat(redis.getClient().call("GET", "abc")).isEqualTo("seeded");
+            workDir = new File(redis.getClient().configGet("dir").get("dir"));
+            Assertions.assertThat(workDir).isNotEqualTo(seedDir);
+        } finally {
+            redis.stop();
+        }
+        //Then - working copy is deleted, seed is untouched
+        Assertions.assertThat(workDir.exists()).isFalse();
+        Assertions.assertThat(rdb).isFile();
+        rdb.delete();
+        seedDir.delete();
+    }
+
+    @Test
+    public void testBulkLoad() throws Exception {
+        RedisServer redis = RedisServer.Builder().start();
+        List<Command> commands = new ArrayList<Command>();
+        for (int i = 0; i < 1000; ++i) {
+            commands.add(new Command("SET", "key" + i, "value" + i));
+        }
+        commands.add(new Command("INCR", "key0")); // not a number
+        BulkLoadResult result = redis.bulkLoad(commands.iterator());
+        Assertions.assertThat(result.getCommands()).isEqualTo(1001);
+        Assertions.assertThat(result.getErrors()).isEqualTo(1);
+        Assertions.assertThat(readJedis(redis.getPort(), "key999")).isEqualTo("value999");
+        redis.close();
+    }
+
+    @Test
+    public void testClient() throws Exception {
+        RedisServer redis = RedisServer.Builder().start();
+        RedisClient client = redis.getClient();
+        Assertions.assertThat(client.ping()).isTrue();
+        Assertions.assertThat(client.call("SET", "abc", "1")).isEqualTo("OK");
+        List<Object> replies = client.pipeline(Arrays.asList(new Command("GET", "abc"), new Command("INCR", "abc"), new Command("HGET", "abc", "x")));
+        Assertions.assertThat(replies.get(0)).isEqualTo("1");
+        Assertions.assertThat(replies.get(1)).isEqualTo(2L);
+        Assertions.assertThat(replies.get(2)).isInstanceOf(RedisClient.RedisError.class); // WRONGTYPE
+        Assertions.assertThat(redis.getClient()).isSameAs(client);
+        redis.close();
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        RedisServer redis = RedisServer.Builder().start();
+        try {
+            ProcessStats stats = redis.sample();
+            for (int i = 0; i < 100 && stats.getUserMillis() + stats.getSystemMillis() == 0; ++i) {
+                for (int j = 0; j < 1000; ++j) {
+                    redis.getClient().call("SET", "key" + j, "value" + j); // burn some server CPU
+                }
+                stats = redis.sample();
+            }
+            //Then
+            Assertions.assertThat(stats.getRss()).isPositive();
+            Assertions.assertThat(stats.getUserMillis() + stats.getSystemMillis()).isPositive();
+        } finally {
+            redis.stop();
+        }
+        Assertions.assertThat(redis.sample()).isNull();
+    }
+
+    /**
+     * redis-server rewrites its process title, so orphan must be recognized by pid and start time, not command line
+     */
+    @Test
+    public void testPidRegistrySweepKillsOrphan() throws Exception {
+        RedisServer redis = new RedisServer();
+        redis.start();
+        try {
+            File file = null;
+            Properties entry = null;
+            File[] files = new File(System.getProperty("osprocess.pids.dir", new File(System.getProperty("java.io.tmpdir"), "osprocess-pids")
+                    .getPath())).listFiles();
+            for (File candidate : files) {
+                Properties properties = new Properties();
+                FileInputStream input = new FileInputStream(candidate);
+                properties.load(input);
+                input.close();
+                if (properties.getProperty("command", "").endsWith("--port\0" + redis.getPort())) {
+                    file = candidate;
+                    entry = properties;
+                }
+            }
+            Assertions.assertThat(file).isNotNull();
+            //When - owner JVM is gone
+            entry.setProperty("owner", "-1");
+            FileOutputStream output = new FileOutputStream(file);
+            entry.store(output, null);
+            output.close();
+            int killed = PidRegistry.sweep();
+            //Then
+            Assertions.assertThat(killed).isGreaterThanOrEqualTo(1);
+            Assertions.assertThat(file.exists()).isFalse();
+            for (int i = 0; i < 100 && redis.isRunning(); ++i) {
+                Thread.sleep(10);
+            }
+            Assertions.assertThat(redis.isRunning()).isFalse();
+        } finally {
+            redis.stop();
+        }
+    }
+
     private void testJedisOperations(int port) {
         JedisPool pool = new JedisPool("localhost", port);
         Jedis jedis = pool.getResource();
@@ -193,6 +482,43 @@ public class RembedisTest {
         assertProcessExecution(binary3);
     }
 
+    @Test
+    public void testCorruptedBinaryIsReplaced() throws IOException {
+        File binary = RedisServer.unpack();
+        long length = binary.length();
+
+        //When - half-written binary left by killed JVM
+        RandomAccessFile file = new RandomAccessFile(binary, "rw");
+        file.setLength(length / 2);
+        file.close();
+
+        //Then
+        File binary2 = RedisServer.unpack();
+        Assertions.assertThat(binary2.length()).isEqualTo(length);
+        assertProcessExecution(binary2);
+    }
+
+    @Test
+    public void testUnpackRegistry() throws IOException {
+        File binary = RedisServer.unpack();
+        long hits = UnpackRegistry.getHits();
+        long misses = UnpackRegistry.getMisses();
+
+        //When
+        File binary2 = RedisServer.unpack();
+        //Then - answered from registry
+        Assertions.assertThat(binary2).isEqualTo(binary);
+        Assertions.assertThat(UnpackRegistry.getHits()).isEqualTo(hits + 1);
+        Assertions.assertThat(UnpackRegistry.getMisses()).isEqualTo(misses);
+
+        //When
+        binary.delete();
+        File binary3 = RedisServer.unpack();
+        //Then - unpacked again
+        Assertions.assertThat(UnpackRegistry.getMisses()).isEqualTo(misses + 1);
+        assertProcessExecution(binary3);
+    }
+
     private void assertProcessExecution(File binary) throws IOException {
         Assertions.assertThat(binary).exists();
         Assertions.assertThat(binary).isFile();
@@ -0,0 +1,91 @@
+/**
+ * Copyright © 2014, Anthavio
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of the FreeBSD Project.
+ */
+package net.anthavio.rembedis;
+
+import java.io.File;
+import java.util.Arrays;
+
+import net.anthavio.embed.Unpacker;
+import net.anthavio.process.Bit;
+import net.anthavio.process.Os;
+
+/**
+ * Measures time from Unpacker.unpack() to redis-server readiness for java.io.tmpdir and tmpfs destinations
+ * 
+ * Every iteration unpacks into fresh directory so binary is always paged in from its destination filesystem
+ * 
+ * @author mvanek
+ */
+public class TmpfsStartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        for (int round = 0; round < 2; ++round) { // first round is JIT warmup
+            long disk = measure(false, iterations);
+            long tmpfs = measure(true, iterations);
+            if (round == 1) {
+                System.out.println("java.io.tmpdir unpack + start " + disk / iterations / 1000 + " us/op");
+                System.out.println("tmpfs          unpack + start " + tmpfs / iterations / 1000 + " us/op");
+            }
+        }
+    }
+
+    private static long measure(boolean tmpfs, int iterations) {
+        long total = 0;
+        for (int i = 0; i < iterations; ++i) {
+            Unpacker.UnpackerBuilder builder = Unpacker.Builder().setName("redis-benchmark-" + System.nanoTime())
+                    .setVersion(RedisServer.REDIS_VERSION).//
+                    addBinary(Os.WINDOWS, Bit.B64, "windows/redis-server.exe").//
+                    addBinary(Os.MACOS, Bit.B64, "macosx/redis-server").//
+                    addBinary(Os.LINUX, Bit.B32, "linux86/redis-server").//
+                    addBinary(Os.LINUX, Bit.B64, "linux64/redis-server");
+            if (tmpfs) {
+                builder.preferTmpfs(64 * 1024 * 1024);
+            }
+            Unpacker unpacker = builder.build();
+
+            long start = System.nanoTime();
+            File binary = unpacker.unpack();
+            RedisServer redis = new RedisServer(binary, Arrays.<String> asList());
+            redis.start();
+            total += System.nanoTime() - start;
+
+            redis.stop();
+            delete(binary.getParentFile());
+        }
+        return total;
+    }
+
+    private static void delete(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+}